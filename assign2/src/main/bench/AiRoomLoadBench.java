@@ -0,0 +1,153 @@
+package bench;
+
+import common.MessageType;
+import org.json.JSONObject;
+import server.ChatServer;
+import server.ClientHandler;
+import server.Connection;
+import server.FakeLlmBackend;
+import server.LlmDispatcher;
+import server.OutboundFrame;
+import server.OutboundQueue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Load test for AI rooms against FakeLlmBackend: many rooms, each with a few chatting clients,
+// through the real ClientHandler dispatch, scheduler, dispatcher and bot streaming but without
+// sockets or a model. Reports bot replies and how long each message waited for the start of
+// the reply that covered it.
+//   java -cp .:lib/json-20231013.jar bench.AiRoomLoadBench <rooms> <clientsPerRoom> <messagesPerClient> <firstTokenMs> <tokensPerSec>
+public class AiRoomLoadBench {
+
+    // Records, per room, when the oldest unanswered message was sent and when bot streams start
+    static class BotWatchingConnection implements Connection {
+        static final ConcurrentHashMap<String, Long> waitingSince = new ConcurrentHashMap<>();
+        static final ConcurrentLinkedQueue<Long> replyWaits = new ConcurrentLinkedQueue<>();
+        static final AtomicLong deltas = new AtomicLong();
+        static final AtomicLong replies = new AtomicLong();
+
+        private final OutboundQueue queue = new OutboundQueue();
+        private final boolean observer;
+
+        BotWatchingConnection(boolean observer) {
+            this.observer = observer;
+        }
+
+        @Override
+        public void send(OutboundFrame frame) {
+            if (!observer) {
+                return;
+            }
+            ByteBuffer buffer = frame.asByteBuffer();
+            byte[] bytes = new byte[buffer.remaining()];
+            buffer.get(bytes);
+            JSONObject message = new JSONObject(new String(bytes, StandardCharsets.UTF_8).trim());
+            String type = message.optString("type");
+            if (type.equals(MessageType.BOT_MESSAGE_START.toString())) {
+                Long since = waitingSince.remove(message.optString("roomName"));
+                if (since != null) {
+                    replyWaits.add(System.nanoTime() - since);
+                }
+            } else if (type.equals(MessageType.BOT_MESSAGE_DELTA.toString())) {
+                deltas.incrementAndGet();
+            } else if (type.equals(MessageType.BOT_MESSAGE_END.toString())) {
+                replies.incrementAndGet();
+            }
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public String getRemoteAddress() {
+            return "127.0.0.1";
+        }
+
+        @Override
+        public OutboundQueue getOutboundQueue() {
+            return queue;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rooms = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+        int clientsPerRoom = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int messagesPerClient = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+        long firstTokenMs = args.length > 3 ? Long.parseLong(args[3]) : 200;
+        double tokensPerSec = args.length > 4 ? Double.parseDouble(args[4]) : 30;
+
+        ChatServer server = new ChatServer(0, "localhost", ChatServer.TRANSPORT_BLOCKING,
+                new FakeLlmBackend(firstTokenMs, tokensPerSec, 40));
+
+        // Client 0 of each room watches the bot; everyone logs in through RECONNECT
+        List<ClientHandler> handlers = new ArrayList<>();
+        List<String> roomOf = new ArrayList<>();
+        for (int r = 0; r < rooms; r++) {
+            for (int c = 0; c < clientsPerRoom; c++) {
+                String username = "bench" + r + "_" + c;
+                ClientHandler handler = new ClientHandler(new BotWatchingConnection(c == 0), server);
+                String token = server.createToken(username, handler);
+                handler.handleFrame("{\"type\":\"RECONNECT\",\"username\":\"" + username + "\",\"token\":\"" + token + "\"}");
+                handler.handleFrame("{\"type\":\"JOIN_ROOM\",\"roomName\":\"ai load-" + r + "\"}");
+                handlers.add(handler);
+                roomOf.add("ai load-" + r);
+            }
+        }
+        // let the welcome messages go out before measuring
+        Thread.sleep(firstTokenMs * 2 + 2_000);
+        BotWatchingConnection.replies.set(0);
+        BotWatchingConnection.deltas.set(0);
+        BotWatchingConnection.replyWaits.clear();
+
+        CountDownLatch done = new CountDownLatch(handlers.size());
+        long start = System.nanoTime();
+        for (int i = 0; i < handlers.size(); i++) {
+            ClientHandler handler = handlers.get(i);
+            String room = roomOf.get(i);
+            int seed = i;
+            Thread.startVirtualThread(() -> {
+                try {
+                    for (int m = 0; m < messagesPerClient; m++) {
+                        // people type a line every few hundred ms
+                        Thread.sleep(200 + (seed * 37 + m * 101) % 600);
+                        BotWatchingConnection.waitingSince.putIfAbsent(room, System.nanoTime());
+                        handler.handleFrame("{\"type\":\"SEND_MESSAGE\",\"content\":\"message " + m + " from " + seed + "\"}");
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+        // wait for the last replies to finish
+        while (!BotWatchingConnection.waitingSince.isEmpty() || LlmDispatcher.shared().getInFlight() > 0) {
+            Thread.sleep(50);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        long[] waits = BotWatchingConnection.replyWaits.stream().mapToLong(Long::longValue).sorted().toArray();
+        long messages = (long) handlers.size() * messagesPerClient;
+        System.out.printf("%d rooms x %d clients, %d messages, fake LLM first token %dms, %.0f tok/s, maxInFlight %d%n",
+                rooms, clientsPerRoom, messages, firstTokenMs, tokensPerSec, LlmDispatcher.shared().getMaxInFlight());
+        System.out.printf("%.1fs, %d bot replies (%.2f per message), %d deltas, %d shed%n",
+                seconds, BotWatchingConnection.replies.get(), (double) BotWatchingConnection.replies.get() / messages,
+                BotWatchingConnection.deltas.get(), LlmDispatcher.shared().getShedCount());
+        if (waits.length > 0) {
+            System.out.printf("wait for reply start: mean %.0fms p50 %.0fms p99 %.0fms max %.0fms%n",
+                    Arrays.stream(waits).average().orElse(0) / 1e6, waits[waits.length / 2] / 1e6,
+                    waits[Math.min(waits.length - 1, waits.length * 99 / 100)] / 1e6, waits[waits.length - 1] / 1e6);
+        }
+        System.exit(0);
+    }
+}
@@ -0,0 +1,101 @@
+package bench;
+
+import common.MessageType;
+import org.json.JSONObject;
+import server.FrameDecoder;
+
+import java.lang.management.ManagementFactory;
+
+// Inbound frames decoded per second: the previous org.json path (JSONObject per frame, type
+// compared against MessageType.X.toString() in an if/else chain) against FrameDecoder with a
+// switch on MessageType. Single thread, a chat-like mix that is mostly SEND_MESSAGE.
+//   java -cp .:lib/json-20231013.jar bench.FrameDecodeBench <framesPerRound> <rounds>
+public class FrameDecodeBench {
+    private static final String[] FRAMES = {
+            "{\"type\":\"SEND_MESSAGE\",\"content\":\"hello everyone, how is the assignment going?\"}",
+            "{\"type\":\"SEND_MESSAGE\",\"content\":\"ok\"}",
+            "{\"type\":\"SEND_MESSAGE\",\"content\":\"I think the \\\"distributed\\\" part is harder than the parallel one\"}",
+            "{\"type\":\"SEND_MESSAGE\",\"content\":\"@Bot can you explain what a vector clock is, with a short example?\"}",
+            "{\"type\":\"SEND_MESSAGE\",\"content\":\"lol\"}",
+            "{\"type\":\"SEND_MESSAGE\",\"content\":\"see you tomorrow at the lab, the room changed to B032\"}",
+            "{\"type\":\"HEARTBEAT\"}",
+            "{\"type\":\"JOIN_ROOM\",\"roomName\":\"distributed computation\"}",
+            "{\"type\":\"LIST_ROOMS\"}",
+            "{\"type\":\"SEND_MESSAGE\",\"content\":\"ready when you are\"}",
+    };
+
+    private static long sink;
+
+    public static void main(String[] args) {
+        int framesPerRound = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        // warm-up: both paths well past C2 compilation
+        for (int i = 0; i < 3; i++) {
+            orgJson(framesPerRound / 2);
+            frameDecoder(new FrameDecoder(), framesPerRound / 2);
+        }
+
+        System.out.printf("%d frames per round, %d rounds%n", framesPerRound, rounds);
+        System.out.printf("%-14s %16s %16s%n", "decoder", "frames/s", "bytes/frame");
+        for (int round = 0; round < rounds; round++) {
+            report("org.json", framesPerRound, () -> orgJson(framesPerRound));
+            FrameDecoder decoder = new FrameDecoder();
+            report("FrameDecoder", framesPerRound, () -> frameDecoder(decoder, framesPerRound));
+        }
+        System.out.println(sink == 42 ? "" : "(checksum " + sink + ")");
+    }
+
+    private static void report(String label, int frames, Runnable run) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().threadId();
+        long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        run.run();
+        long elapsed = System.nanoTime() - start;
+        long allocated = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+        System.out.printf("%-14s %16.0f %16.1f%n", label, frames / (elapsed / 1e9), (double) allocated / frames);
+    }
+
+    // What ClientHandler.handleMessage did before
+    private static void orgJson(int frames) {
+        for (int i = 0; i < frames; i++) {
+            JSONObject json = new JSONObject(FRAMES[i % FRAMES.length]);
+            String type = json.getString("type");
+            if (type.equals(MessageType.QUIT.toString())) {
+                sink += 1;
+            } else if (type.equals(MessageType.LIST_ROOMS.toString())) {
+                sink += 2;
+            } else if (type.equals(MessageType.JOIN_ROOM.toString())) {
+                sink += json.getString("roomName").length();
+            } else if (type.equals(MessageType.LEAVE_ROOM.toString())) {
+                sink += 3;
+            } else if (type.equals(MessageType.LIST_CMDS.toString())) {
+                sink += 4;
+            } else if (type.equals(MessageType.LIST_CUR_ROOM.toString())) {
+                sink += 5;
+            } else if (type.equals(MessageType.SEND_MESSAGE.toString())) {
+                sink += json.getString("content").length();
+            } else if (type.equals("HEARTBEAT")) {
+                sink += 6;
+            }
+        }
+    }
+
+    private static void frameDecoder(FrameDecoder frame, int frames) {
+        for (int i = 0; i < frames; i++) {
+            MessageType type = frame.decode(FRAMES[i % FRAMES.length]);
+            switch (type) {
+                case QUIT -> sink += 1;
+                case LIST_ROOMS -> sink += 2;
+                case JOIN_ROOM -> sink += frame.getString(FrameDecoder.Field.ROOM_NAME).length();
+                case LEAVE_ROOM -> sink += 3;
+                case LIST_CMDS -> sink += 4;
+                case LIST_CUR_ROOM -> sink += 5;
+                case SEND_MESSAGE -> sink += frame.getString(FrameDecoder.Field.CONTENT).length();
+                case HEARTBEAT -> sink += 6;
+                default -> { }
+            }
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package bench;
+
+import server.ChatServer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.net.ssl.*;
+
+// Full vs resumed TLS handshakes per second against an in-process ChatServer.
+// "full" invalidates every session so each connection negotiates from scratch;
+// "resumed" keeps one client SSLContext so connections resume from its session cache.
+//   java -cp .:lib/json-20231013.jar bench.HandshakeBench <transport> <connections> <concurrency>
+public class HandshakeBench {
+    // Not a valid first message, so the server answers with an ERROR frame and closes
+    private static final byte[] PROBE = "{\"type\":\"HEARTBEAT\"}\n".getBytes(StandardCharsets.UTF_8);
+
+    public static void main(String[] args) throws Exception {
+        String transport = args.length > 0 ? args[0] : ChatServer.TRANSPORT_BLOCKING;
+        int connections = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+        int concurrency = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+        int port = args.length > 3 ? Integer.parseInt(args[3]) : 9444;
+
+        ChatServer server = new ChatServer(port, "localhost", transport);
+        Thread serverThread = new Thread(server::start, "bench-server");
+        serverThread.setDaemon(true);
+        serverThread.start();
+
+        SSLContext clientContext = IdleConnectionBench.createSSLContext();
+        waitForServer(clientContext.getSocketFactory(), port);
+
+        // Warm-up, then seed the client session cache for the resumed run
+        run(clientContext, port, Math.min(200, connections), concurrency, false);
+
+        System.out.printf("transport=%s connections=%d concurrency=%d%n", transport, connections, concurrency);
+        report("full", run(clientContext, port, connections, concurrency, false), connections);
+        report("resumed", run(clientContext, port, connections, concurrency, true), connections);
+        System.exit(0);
+    }
+
+    private static void report(String label, double seconds, int connections) {
+        System.out.printf("%-8s %8.1f handshakes/s  (%.2f ms each)%n", label, connections / seconds, seconds * 1000 / connections);
+    }
+
+    private static double run(SSLContext context, int port, int connections, int concurrency, boolean resume)
+            throws InterruptedException {
+        SSLSocketFactory factory = context.getSocketFactory();
+        AtomicInteger remaining = new AtomicInteger(connections);
+        CountDownLatch done = new CountDownLatch(concurrency);
+
+        long start = System.nanoTime();
+        for (int t = 0; t < concurrency; t++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    while (remaining.getAndDecrement() > 0) {
+                        try (SSLSocket socket = (SSLSocket) factory.createSocket("localhost", port)) {
+                            socket.startHandshake();
+                            // One request/response: reading is what processes the server's
+                            // post-handshake TLS 1.3 session ticket on the client
+                            socket.getOutputStream().write(PROBE);
+                            socket.getOutputStream().flush();
+                            socket.getInputStream().read(new byte[256]);
+                            if (!resume) {
+                                socket.getSession().invalidate();
+                            }
+                        } catch (Exception e) {
+                            System.err.println("Handshake failed: " + e.getMessage());
+                        }
+                    }
+                } finally {
+                    done.countDown();
+                }
+            });
+            thread.start();
+        }
+        done.await();
+        return (System.nanoTime() - start) / 1e9;
+    }
+
+    private static void waitForServer(SSLSocketFactory factory, int port) throws InterruptedException {
+        for (int i = 0; i < 100; i++) {
+            try {
+                factory.createSocket("localhost", port).close();
+                return;
+            } catch (Exception e) {
+                Thread.sleep(100);
+            }
+        }
+        throw new IllegalStateException("Server did not start on port " + port);
+    }
+}
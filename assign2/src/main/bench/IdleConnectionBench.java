@@ -0,0 +1,95 @@
+package bench;
+
+import server.ChatServer;
+
+import java.io.FileInputStream;
+import java.lang.management.ManagementFactory;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.List;
+import javax.net.ssl.*;
+
+// Heap cost of idle TLS connections for one transport mode.
+// Run once per mode from the main directory, e.g.
+//   java -cp .:lib/json-20231013.jar bench.IdleConnectionBench blocking 2000
+//   java -cp .:lib/json-20231013.jar bench.IdleConnectionBench nio 2000
+// Client sockets live in the same JVM, so their cost is included in both runs;
+// the difference between the two numbers is the server-side difference.
+public class IdleConnectionBench {
+    private static final String TRUSTSTORE_PATH = "client/client.truststore";
+    private static final String TRUSTSTORE_PASSWORD = "changeit";
+
+    public static void main(String[] args) throws Exception {
+        String transport = args.length > 0 ? args[0] : ChatServer.TRANSPORT_NIO;
+        int connections = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        int port = args.length > 2 ? Integer.parseInt(args[2]) : 9443;
+
+        ChatServer server = new ChatServer(port, "localhost", transport);
+        Thread serverThread = new Thread(server::start, "bench-server");
+        serverThread.setDaemon(true);
+        serverThread.start();
+
+        SSLSocketFactory factory = createSSLContext().getSocketFactory();
+        waitForServer(factory, port);
+
+        long baseline = usedHeap();
+        int baselineThreads = Thread.activeCount();
+
+        List<SSLSocket> sockets = new ArrayList<>(connections);
+        long startNanos = System.nanoTime();
+        for (int i = 0; i < connections; i++) {
+            SSLSocket socket = (SSLSocket) factory.createSocket("localhost", port);
+            socket.startHandshake();
+            sockets.add(socket);
+        }
+        double connectSeconds = (System.nanoTime() - startNanos) / 1e9;
+
+        // Let the server side finish its handshakes and settle into idle reads
+        Thread.sleep(2000);
+        long loaded = usedHeap();
+
+        System.out.printf("transport=%s connections=%d%n", transport, connections);
+        System.out.printf("connect+handshake: %.2f s (%.0f conn/s)%n", connectSeconds, connections / connectSeconds);
+        System.out.printf("heap delta: %.1f MiB, %.1f KiB per idle connection (client + server)%n",
+                (loaded - baseline) / (1024.0 * 1024.0), (loaded - baseline) / 1024.0 / connections);
+        System.out.printf("platform threads: %d -> %d%n", baselineThreads, Thread.activeCount());
+
+        for (SSLSocket socket : sockets) {
+            socket.close();
+        }
+        System.exit(0);
+    }
+
+    private static void waitForServer(SSLSocketFactory factory, int port) throws InterruptedException {
+        for (int i = 0; i < 100; i++) {
+            try {
+                factory.createSocket("localhost", port).close();
+                return;
+            } catch (Exception e) {
+                Thread.sleep(100);
+            }
+        }
+        throw new IllegalStateException("Server did not start on port " + port);
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(200);
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    public static SSLContext createSSLContext() throws Exception {
+        KeyStore trustStore = KeyStore.getInstance("JKS");
+        try (FileInputStream fis = new FileInputStream(TRUSTSTORE_PATH)) {
+            trustStore.load(fis, TRUSTSTORE_PASSWORD.toCharArray());
+        }
+        TrustManagerFactory trustManagerFactory = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trustManagerFactory.init(trustStore);
+
+        SSLContext sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(null, trustManagerFactory.getTrustManagers(), null);
+        return sslContext;
+    }
+}
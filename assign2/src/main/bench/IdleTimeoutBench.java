@@ -0,0 +1,132 @@
+package bench;
+
+import server.ChatServer;
+import server.ClientHandler;
+import server.Connection;
+import server.OutboundFrame;
+import server.OutboundQueue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Idle detection through the real ClientHandler, without sockets. Three kinds of connection:
+// logged-in clients that keep sending HEARTBEAT, logged-in clients that go silent (half-open) and
+// connections that never log in. After a few timeouts it checks that exactly the silent ones
+// were closed, how long after their deadline (the wheel's granularity is one tick) and that the
+// silent users are no longer reported as connected.
+//   java -Dchat.idle.timeoutMs=2000 -Dchat.idle.tickMs=100 -Dchat.reconnect.ratePerSec=100000 \
+//        -cp .:lib/json-20231013.jar bench.IdleTimeoutBench <connectionsPerKind>
+public class IdleTimeoutBench {
+
+    // Plays the transport: close() runs the handler's disconnect at once and records when
+    static class TimedConnection implements Connection {
+        private final OutboundQueue queue = new OutboundQueue();
+        ClientHandler handler;
+        volatile long closedNanos = 0;
+
+        @Override
+        public void send(OutboundFrame frame) {
+        }
+
+        @Override
+        public void close() {
+            if (closedNanos == 0) {
+                closedNanos = System.nanoTime();
+                handler.onDisconnect();
+            }
+        }
+
+        @Override
+        public String getRemoteAddress() {
+            return "127.0.0.1";
+        }
+
+        @Override
+        public OutboundQueue getOutboundQueue() {
+            return queue;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int perKind = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        long timeoutMs = Long.getLong("chat.idle.timeoutMs", 30_000);
+
+        ChatServer server = new ChatServer(0, "localhost");
+
+        List<TimedConnection> beating = new ArrayList<>(perKind);
+        List<TimedConnection> silent = new ArrayList<>(perKind);
+        List<TimedConnection> unauthenticated = new ArrayList<>(perKind);
+        List<ClientHandler> beatingHandlers = new ArrayList<>(perKind);
+        long[] lastFrameNanos = new long[perKind * 2];
+        for (int i = 0; i < perKind * 2; i++) {
+            String username = "idle" + i;
+            TimedConnection connection = new TimedConnection();
+            connection.handler = new ClientHandler(connection, server);
+            String token = server.createToken(username, connection.handler);
+            server.trackIdle(connection.handler);
+            connection.handler.handleFrame("{\"type\":\"RECONNECT\",\"username\":\"" + username + "\",\"token\":\"" + token + "\"}");
+            lastFrameNanos[i] = System.nanoTime();
+            if (i < perKind) {
+                beating.add(connection);
+                beatingHandlers.add(connection.handler);
+            } else {
+                silent.add(connection);
+            }
+        }
+        long loginStart = System.nanoTime();
+        for (int i = 0; i < perKind; i++) {
+            TimedConnection connection = new TimedConnection();
+            connection.handler = new ClientHandler(connection, server);
+            server.trackIdle(connection.handler);
+            unauthenticated.add(connection);
+        }
+
+        // Heartbeats every quarter of the timeout, as the real client does with its defaults
+        long end = System.nanoTime() + timeoutMs * 3_000_000;
+        while (System.nanoTime() < end) {
+            for (ClientHandler handler : beatingHandlers) {
+                handler.handleFrame("{\"type\":\"HEARTBEAT\"}");
+            }
+            Thread.sleep(Math.max(1, timeoutMs / 4));
+        }
+
+        long timeoutNanos = timeoutMs * 1_000_000;
+        long[] lateness = new long[perKind * 2];
+        int closedSilent = 0;
+        for (int i = 0; i < perKind; i++) {
+            TimedConnection connection = silent.get(i);
+            if (connection.closedNanos != 0) {
+                lateness[closedSilent++] = connection.closedNanos - (lastFrameNanos[perKind + i] + timeoutNanos);
+            }
+        }
+        int closedLogin = 0;
+        for (TimedConnection connection : unauthenticated) {
+            if (connection.closedNanos != 0) {
+                lateness[closedSilent + closedLogin++] = connection.closedNanos - (loginStart + timeoutNanos);
+            }
+        }
+        long closedBeating = beating.stream().filter(c -> c.closedNanos != 0).count();
+        long stillConnected = 0;
+        for (int i = perKind; i < perKind * 2; i++) {
+            if (server.isUserLoggedIn("idle" + i)) {
+                stillConnected++;
+            }
+        }
+
+        System.out.printf("timeout %d ms, %d connections of each kind%n", timeoutMs, perKind);
+        System.out.printf("heartbeating closed: %d (expected 0)%n", closedBeating);
+        System.out.printf("silent closed: %d, never logged in closed: %d (expected %d each)%n", closedSilent, closedLogin, perKind);
+        System.out.printf("server counters: idle evictions %d, login timeouts %d%n",
+                server.getIdleEvictionCount(), server.getLoginTimeoutCount());
+        System.out.printf("silent users still reported connected: %d (expected 0)%n", stillConnected);
+        long[] sorted = Arrays.copyOf(lateness, closedSilent + closedLogin);
+        Arrays.sort(sorted);
+        if (sorted.length > 0) {
+            System.out.printf("closed after deadline by: min %.1f ms  p50 %.1f ms  p99 %.1f ms  max %.1f ms%n",
+                    sorted[0] / 1e6, sorted[sorted.length / 2] / 1e6, sorted[(int) (sorted.length * 0.99)] / 1e6,
+                    sorted[sorted.length - 1] / 1e6);
+        }
+        System.exit(0);
+    }
+}
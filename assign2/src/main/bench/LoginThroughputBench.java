@@ -0,0 +1,86 @@
+package bench;
+
+import server.PasswordHasher;
+import server.UserStore;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Login throughput and latency at several KDF cost settings, to pick -Dchat.kdf.iterations.
+// Each round floods UserStore.authenticate() from virtual threads, like concurrent LOGIN_REQUESTs.
+//   java -cp .:lib/json-20231013.jar bench.LoginThroughputBench <concurrentLogins> <iterations...>
+public class LoginThroughputBench {
+
+    public static void main(String[] args) throws Exception {
+        int logins = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int[] costs = args.length > 1
+                ? Arrays.stream(args, 1, args.length).mapToInt(Integer::parseInt).toArray()
+                : new int[]{10_000, 50_000, 100_000, 200_000, 600_000};
+        int threads = Runtime.getRuntime().availableProcessors();
+
+        System.out.printf("%d concurrent logins per round, %d hashing threads%n", logins, threads);
+        warmUp(threads);
+        for (int cost : costs) {
+            Path file = Files.createTempFile("users", ".txt");
+            try {
+                UserStore store = new UserStore(file.toString(), new PasswordHasher(cost, threads, logins));
+                store.register("bench", "correct horse battery staple");
+                run(store, cost, logins);
+            } finally {
+                Files.deleteIfExists(file);
+            }
+        }
+        System.exit(0);
+    }
+
+    // Gets PBKDF2 and the verify path compiled before the first measured round
+    private static void warmUp(int threads) throws Exception {
+        Path file = Files.createTempFile("users", ".txt");
+        try {
+            UserStore store = new UserStore(file.toString(), new PasswordHasher(1_000, threads, 1_000));
+            store.register("bench", "warm up");
+            for (int i = 0; i < 500; i++) {
+                store.authenticate("bench", "warm up");
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static void run(UserStore store, int cost, int logins) throws InterruptedException {
+        long[] latencies = new long[logins];
+        AtomicInteger accepted = new AtomicInteger();
+        AtomicInteger rejected = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(logins);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < logins; i++) {
+            int index = i;
+            Thread.startVirtualThread(() -> {
+                long t0 = System.nanoTime();
+                try {
+                    if (store.authenticate("bench", "correct horse battery staple")) {
+                        accepted.incrementAndGet();
+                    }
+                } catch (RejectedExecutionException e) {
+                    rejected.incrementAndGet();
+                } finally {
+                    latencies[index] = System.nanoTime() - t0;
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        Arrays.sort(latencies);
+        System.out.printf("iterations=%-8d %8.1f logins/s   p50=%7.1f ms   p99=%7.1f ms   ok=%d rejected=%d%n",
+                cost, accepted.get() / seconds,
+                latencies[logins / 2] / 1e6, latencies[(int) (logins * 0.99)] / 1e6,
+                accepted.get(), rejected.get());
+    }
+}
@@ -0,0 +1,144 @@
+package bench;
+
+import server.MessageLog;
+import server.MessageStore;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+// Room message logs in a temporary directory: append cost (memory only, as on the broadcast
+// path), one batched flush, recovery when the logs are reopened, the join replay (served from
+// memory) and "history before id" pages that go through the index to disk. Finally a torn write
+// is simulated on one room and the log is reopened to check it recovers to the last full record.
+//   java -cp .:lib/json-20231013.jar bench.MessageLogBench <rooms> <messages> <lookups>
+// Use -Dchat.log.segmentBytes to see the effect of smaller segments.
+public class MessageLogBench {
+    private static final String[] SENDERS = {"alice", "bob", "carol", "dave", "erin", "frank"};
+    private static final String[] LINES = {
+            "hello everyone", "ok", "did anyone finish the second part?",
+            "I think the distributed part is harder than the parallel one", "lol",
+            "see you tomorrow at the lab, the room changed to B032",
+    };
+    private static final int PAGE = 50;
+
+    public static void main(String[] args) throws IOException {
+        int roomCount = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        int messages = args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000;
+        int lookups = args.length > 2 ? Integer.parseInt(args[2]) : 20_000;
+
+        Path dir = Files.createTempDirectory("message-log-bench");
+        try {
+            run(dir, roomCount, messages, lookups);
+        } finally {
+            try (Stream<Path> files = Files.walk(dir)) {
+                for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+
+    private static void run(Path dir, int roomCount, int messages, int lookups) throws IOException {
+        MessageStore store = new MessageStore(dir);
+        List<MessageLog> logs = open(store, roomCount);
+
+        long start = System.nanoTime();
+        long now = System.currentTimeMillis();
+        for (int m = 0; m < messages; m++) {
+            logs.get(m % roomCount).append(SENDERS[m % SENDERS.length], LINES[m % LINES.length], now + m);
+        }
+        long appended = System.nanoTime();
+        store.close();
+        long flushed = System.nanoTime();
+        long bytes = diskBytes(dir);
+        System.out.printf("%d messages in %d rooms: append %.0f ns/message, flush %.0f ms (%.1f MB, %d segments)%n",
+                messages, roomCount, (double) (appended - start) / messages, (flushed - appended) / 1e6,
+                bytes / 1e6, segmentCount(dir));
+
+        start = System.nanoTime();
+        store = new MessageStore(dir);
+        logs = open(store, roomCount);
+        System.out.printf("reopen and recover all rooms: %.1f ms%n", (System.nanoTime() - start) / 1e6);
+
+        Random random = new Random(42);
+        long[] replay = new long[lookups];
+        long[] older = new long[lookups];
+        int returned = 0;
+        for (int i = 0; i < lookups; i++) {
+            MessageLog log = logs.get(random.nextInt(roomCount));
+            long t0 = System.nanoTime();
+            returned += log.latest(PAGE).size();
+            long t1 = System.nanoTime();
+            long beforeId = 1 + random.nextInt((int) Math.max(1, log.getLastId()));
+            returned += log.before(beforeId, PAGE).size();
+            long t2 = System.nanoTime();
+            replay[i] = t1 - t0;
+            older[i] = t2 - t1;
+        }
+        report("replay on join (latest " + PAGE + ")", replay);
+        report("history before random id", older);
+        System.out.printf("(%d messages returned)%n", returned);
+        store.close();
+
+        // Torn write: half a record at the end of the first room's last segment
+        MessageLog first = new MessageStore(dir).forRoom("general-0");
+        long lastId = first.getLastId();
+        Path roomDir;
+        try (Stream<Path> rooms = Files.list(dir)) {
+            roomDir = rooms.filter(p -> p.getFileName().toString().endsWith("-general-0")).findFirst().orElseThrow();
+        }
+        Path segment;
+        try (Stream<Path> files = Files.list(roomDir)) {
+            segment = files.filter(p -> p.toString().endsWith(".log")).max(Comparator.naturalOrder()).orElseThrow();
+        }
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            channel.write(ByteBuffer.wrap(new byte[]{0, 0, 0, 40, 1, 2, 3, 4, 0, 0}));
+        }
+        MessageStore reopened = new MessageStore(dir);
+        MessageLog recovered = reopened.forRoom("general-0");
+        List<MessageLog.Entry> tail = recovered.latest(1);
+        boolean ok = recovered.getLastId() == lastId && !tail.isEmpty() && tail.get(0).id() == lastId;
+        long id = recovered.append("check", "after recovery", System.currentTimeMillis());
+        reopened.close();
+        ok &= new MessageStore(dir).forRoom("general-0").before(id + 1, 2).get(1).id() == id;
+        System.out.println("torn tail recovery: " + (ok ? "ok" : "FAILED"));
+    }
+
+    private static List<MessageLog> open(MessageStore store, int roomCount) {
+        List<MessageLog> logs = new ArrayList<>(roomCount);
+        for (int r = 0; r < roomCount; r++) {
+            logs.add(store.forRoom("general-" + r));
+        }
+        return logs;
+    }
+
+    private static void report(String label, long[] nanos) {
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        double mean = Arrays.stream(sorted).average().orElse(0);
+        System.out.printf("%-34s mean %8.1f us  p50 %8.1f us  p99 %8.1f us%n", label,
+                mean / 1e3, sorted[sorted.length / 2] / 1e3, sorted[(int) (sorted.length * 0.99)] / 1e3);
+    }
+
+    private static long diskBytes(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            return files.filter(Files::isRegularFile).mapToLong(p -> p.toFile().length()).sum();
+        }
+    }
+
+    private static long segmentCount(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            return files.filter(p -> p.toString().endsWith(".log")).count();
+        }
+    }
+}
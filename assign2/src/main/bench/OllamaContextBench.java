@@ -0,0 +1,228 @@
+package bench;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import server.ConversationWindow;
+import server.LlmBackend;
+import server.OllamaClient;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Prompt bytes and per-turn latency of one long AIRoom conversation under three ways of talking
+// to Ollama, against a local stand-in server:
+//   prompt:  stateless /api/generate with the whole rendered window every turn (the old way)
+//   context: /api/generate continuing from the previous reply's context, sending only new turns
+//   chat:    /api/chat with the window as a message list, resent every turn
+//
+// The stand-in models the part of Ollama that matters here: one loaded model slot whose KV cache
+// holds the last evaluated token sequence. A request pays prefill for every token after the
+// longest prefix it shares with that sequence, then decode for each output token. Tokens are
+// whitespace-separated words.
+//   java -cp .:lib/json-20231013.jar bench.OllamaContextBench <turns> <budgetTokens> <prefillMicrosPerToken> <decodeMillisPerToken>
+public class OllamaContextBench {
+    private static final int OUTPUT_TOKENS = 12;
+    private static final String SYSTEM_LINE = "System: You are a helpful assistant in the chat room 'bench AI'.";
+    private static final String INSTRUCTION = "\nResponde como um assistente útil na sala de chat 'bench AI'. "
+            + "Mantém a resposta concisa e relevante ao contexto da conversa:";
+
+    // The stand-in Ollama
+    static class StandIn {
+        final long prefillNanosPerToken;
+        final long decodeMillisPerToken;
+        final AtomicLong requestBytes = new AtomicLong();
+        final AtomicLong prefillTokens = new AtomicLong();
+        private List<Integer> cached = new ArrayList<>(); // guarded by this
+        private int reply = 0;
+
+        StandIn(long prefillMicrosPerToken, long decodeMillisPerToken) {
+            this.prefillNanosPerToken = prefillMicrosPerToken * 1_000;
+            this.decodeMillisPerToken = decodeMillisPerToken;
+        }
+
+        HttpServer start() throws IOException {
+            HttpServer http = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+            http.createContext("/api/generate", exchange -> handle(exchange, false));
+            http.createContext("/api/chat", exchange -> handle(exchange, true));
+            http.createContext("/api/tags", exchange -> {
+                exchange.getRequestBody().readAllBytes();
+                exchange.sendResponseHeaders(200, -1);
+                exchange.close();
+            });
+            http.start();
+            return http;
+        }
+
+        private synchronized void handle(HttpExchange exchange, boolean chat) throws IOException {
+            byte[] body = exchange.getRequestBody().readAllBytes();
+            requestBytes.addAndGet(body.length);
+            JSONObject request = new JSONObject(new String(body, StandardCharsets.UTF_8));
+
+            List<Integer> sequence = new ArrayList<>();
+            if (chat) {
+                JSONArray messages = request.getJSONArray("messages");
+                for (int i = 0; i < messages.length(); i++) {
+                    JSONObject message = messages.getJSONObject(i);
+                    tokenize(message.getString("role") + ": " + message.getString("content"), sequence);
+                }
+            } else {
+                JSONArray context = request.optJSONArray("context");
+                if (context != null) {
+                    for (int i = 0; i < context.length(); i++) {
+                        sequence.add(context.getInt(i));
+                    }
+                }
+                tokenize(request.getString("prompt"), sequence);
+            }
+
+            int shared = 0;
+            while (shared < cached.size() && shared < sequence.size() && cached.get(shared).equals(sequence.get(shared))) {
+                shared++;
+            }
+            int toEvaluate = sequence.size() - shared;
+            prefillTokens.addAndGet(toEvaluate);
+            sleepNanos(toEvaluate * prefillNanosPerToken);
+
+            exchange.getResponseHeaders().set("Content-Type", "application/x-ndjson");
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream out = exchange.getResponseBody()) {
+                int n = reply++;
+                for (int t = 0; t < OUTPUT_TOKENS; t++) {
+                    String word = "resposta" + n + "w" + t + " ";
+                    sequence.add(tokenId(word.trim()));
+                    JSONObject chunk = new JSONObject().put("done", false);
+                    if (chat) {
+                        chunk.put("message", new JSONObject().put("role", "assistant").put("content", word));
+                    } else {
+                        chunk.put("response", word);
+                    }
+                    out.write((chunk + "\n").getBytes(StandardCharsets.UTF_8));
+                    out.flush();
+                    sleepNanos(decodeMillisPerToken * 1_000_000);
+                }
+                JSONObject last = new JSONObject().put("done", true);
+                if (!chat) {
+                    last.put("context", new JSONArray(sequence));
+                    last.put("response", "");
+                }
+                out.write((last + "\n").getBytes(StandardCharsets.UTF_8));
+            }
+            cached = sequence;
+        }
+
+        private static void tokenize(String text, List<Integer> into) {
+            for (String word : text.split("\\s+")) {
+                if (!word.isEmpty()) {
+                    into.add(tokenId(word));
+                }
+            }
+        }
+
+        // ids in the range of a real vocabulary, so a context array costs what it does with Ollama
+        private static int tokenId(String word) {
+            return Math.floorMod(word.hashCode(), 32_000);
+        }
+
+        private static void sleepNanos(long nanos) {
+            try {
+                Thread.sleep(nanos / 1_000_000, (int) (nanos % 1_000_000));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        synchronized void reset() {
+            cached = new ArrayList<>();
+            requestBytes.set(0);
+            prefillTokens.set(0);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int turns = args.length > 0 ? Integer.parseInt(args[0]) : 80;
+        int budget = args.length > 1 ? Integer.parseInt(args[1]) : 400;
+        long prefillMicros = args.length > 2 ? Long.parseLong(args[2]) : 300;
+        long decodeMillis = args.length > 3 ? Long.parseLong(args[3]) : 2;
+
+        StandIn standIn = new StandIn(prefillMicros, decodeMillis);
+        HttpServer http = standIn.start();
+        OllamaClient client = new OllamaClient("http://127.0.0.1:" + http.getAddress().getPort());
+
+        System.out.printf("%d turns, %d-token window, prefill %dus/token, decode %dms/token%n",
+                turns, budget, prefillMicros, decodeMillis);
+        System.out.printf("%-8s %14s %14s %12s %12s %12s%n",
+                "mode", "bytes/turn", "prefill tok", "mean ms", "p50 ms", "p99 ms");
+        // connection setup and JIT warm-up stay out of the first measured mode
+        runConversation(client, "prompt", 20, budget);
+        for (String mode : new String[]{"prompt", "context", "chat"}) {
+            standIn.reset();
+            long[] latencies = runConversation(client, mode, turns, budget);
+            Arrays.sort(latencies);
+            System.out.printf("%-8s %14d %14d %12.1f %12.1f %12.1f%n", mode,
+                    standIn.requestBytes.get() / turns,
+                    standIn.prefillTokens.get() / turns,
+                    Arrays.stream(latencies).average().orElse(0) / 1e6,
+                    latencies[turns / 2] / 1e6,
+                    latencies[Math.min(turns - 1, turns * 99 / 100)] / 1e6);
+        }
+        http.stop(0);
+        System.exit(0);
+    }
+
+    // Mirrors AIRoom.generateBotResponse for each mode: one user message, then one bot reply
+    private static long[] runConversation(OllamaClient client, String mode, int turns, int budget) {
+        ConversationWindow window = new ConversationWindow(SYSTEM_LINE, budget, false);
+        ArrayDeque<JSONObject> chatMessages = new ArrayDeque<>();
+        int chatTokens = 0;
+        JSONArray context = null;
+        long[] latencies = new long[turns];
+
+        for (int turn = 0; turn < turns; turn++) {
+            String line = "user" + (turn % 4) + ": message " + turn + " about the topic we were discussing, "
+                    + "with a few more words so it looks like a real chat line number " + turn;
+            window.append(line);
+
+            long start = System.nanoTime();
+            LlmBackend.Generation generation;
+            switch (mode) {
+                case "prompt" -> generation = client.generate(
+                        window.render() + INSTRUCTION, null, null, chunk -> { }).join();
+                case "context" -> {
+                    String prompt = context == null ? window.renderForNewSession() + INSTRUCTION : window.takeNewTurns();
+                    generation = client.generate(prompt, context, null, chunk -> { }).join();
+                    context = generation.context() != null && generation.context().length() <= budget * 2
+                            ? generation.context() : null;
+                }
+                default -> {
+                    chatMessages.addLast(new JSONObject().put("role", "user").put("content", line));
+                    chatTokens += ConversationWindow.estimateTokens(line);
+                    while (chatTokens > budget && chatMessages.size() > 1) {
+                        chatTokens -= ConversationWindow.estimateTokens(chatMessages.pollFirst().getString("content"));
+                    }
+                    JSONArray messages = new JSONArray();
+                    messages.put(new JSONObject().put("role", "system").put("content", SYSTEM_LINE));
+                    chatMessages.forEach(messages::put);
+                    generation = client.chat(messages, null, chunk -> { }).join();
+                }
+            }
+            latencies[turn] = System.nanoTime() - start;
+
+            String reply = "Bot: " + generation.text();
+            window.appendSent(reply);
+            if (mode.equals("chat")) {
+                chatMessages.addLast(new JSONObject().put("role", "assistant").put("content", generation.text()));
+                chatTokens += ConversationWindow.estimateTokens(generation.text());
+            }
+        }
+        return latencies;
+    }
+}
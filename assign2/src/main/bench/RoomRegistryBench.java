@@ -0,0 +1,97 @@
+package bench;
+
+import server.ChatServer;
+import server.ClientHandler;
+import server.Connection;
+import server.OutboundFrame;
+import server.OutboundQueue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Contention benchmark for the room registry: many concurrent clients issuing JOIN_ROOM
+// (plus occasional LIST_ROOMS) across many room names, through the real ClientHandler
+// dispatch but without sockets.
+//   java -cp .:lib/json-20231013.jar bench.RoomRegistryBench <clients> <joinsPerClient> <roomNames>
+public class RoomRegistryBench {
+
+    // Discards everything; only counts frames so the JIT cannot drop the work
+    static class NullConnection implements Connection {
+        static final AtomicLong framesSent = new AtomicLong();
+        private final OutboundQueue queue = new OutboundQueue();
+
+        @Override
+        public void send(OutboundFrame frame) {
+            framesSent.incrementAndGet();
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public String getRemoteAddress() {
+            return "127.0.0.1";
+        }
+
+        @Override
+        public OutboundQueue getOutboundQueue() {
+            return queue;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int joinsPerClient = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        int roomNames = args.length > 2 ? Integer.parseInt(args[2]) : 500;
+
+        ChatServer server = new ChatServer(0, "localhost");
+
+        // Each client gets a session as if its password had been checked, then turns ACTIVE through
+        // RECONNECT, so no password file is needed
+        List<ClientHandler> handlers = new ArrayList<>(clients);
+        for (int i = 0; i < clients; i++) {
+            String username = "bench" + i;
+            ClientHandler handler = new ClientHandler(new NullConnection(), server);
+            String token = server.createToken(username, handler);
+            handler.handleFrame("{\"type\":\"RECONNECT\",\"username\":\"" + username + "\",\"token\":\"" + token + "\"}");
+            handlers.add(handler);
+        }
+
+        for (int round = 0; round < 3; round++) {
+            CountDownLatch start = new CountDownLatch(1);
+            CountDownLatch done = new CountDownLatch(clients);
+            for (int i = 0; i < clients; i++) {
+                ClientHandler handler = handlers.get(i);
+                int seed = i;
+                Thread.startVirtualThread(() -> {
+                    try {
+                        start.await();
+                        for (int j = 0; j < joinsPerClient; j++) {
+                            int room = (seed * 31 + j * 17) % roomNames;
+                            handler.handleFrame("{\"type\":\"JOIN_ROOM\",\"roomName\":\"room-" + room + "\"}");
+                            if (j % 50 == 0) {
+                                handler.handleFrame("{\"type\":\"LIST_ROOMS\"}");
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        done.countDown();
+                    }
+                });
+            }
+
+            long startNanos = System.nanoTime();
+            start.countDown();
+            done.await();
+            double seconds = (System.nanoTime() - startNanos) / 1e9;
+            long joins = (long) clients * joinsPerClient;
+            System.out.printf("round %d: %d JOIN_ROOMs by %d clients over %d rooms in %.2f s (%.0f joins/s)%n",
+                    round, joins, clients, roomNames, seconds, joins / seconds);
+        }
+        System.out.println("frames sent: " + NullConnection.framesSent.get());
+    }
+}
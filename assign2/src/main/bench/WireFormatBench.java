@@ -0,0 +1,86 @@
+package bench;
+
+import common.BinaryWire;
+import common.MessageType;
+import org.json.JSONObject;
+import server.OutboundFrame;
+
+import java.nio.ByteBuffer;
+import java.time.Instant;
+
+// Egress of a high-fan-out room in each framing: every message is broadcast to all members, as
+// Room.broadcastMessage does. JSON recipients share one encoded frame; binary recipients each
+// encode from the frame's shared template with their own intern table.
+//   java -cp .:lib/json-20231013.jar bench.WireFormatBench <recipients> <messages>
+public class WireFormatBench {
+    private static final String[] SENDERS = {"alice", "bob", "carol", "dave", "erin", "frank"};
+    private static final String[] LINES = {
+            "hello everyone", "ok", "did anyone finish the second part?",
+            "I think the distributed part is harder than the parallel one", "lol",
+            "see you tomorrow at the lab, the room changed to B032",
+    };
+
+    public static void main(String[] args) {
+        int recipients = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int messages = args.length > 1 ? Integer.parseInt(args[1]) : 20_000;
+
+        run(recipients, messages / 4); // warm-up
+        run(recipients, messages / 4);
+        System.out.printf("%d recipients, %d messages (MESSAGE_RECEIVED and BOT_MESSAGE_DELTA)%n", recipients, messages);
+        run(recipients, messages);
+    }
+
+    private static void run(int recipients, int messages) {
+        BinaryWire.Encoder[] encoders = new BinaryWire.Encoder[recipients];
+        for (int i = 0; i < recipients; i++) {
+            encoders[i] = new BinaryWire.Encoder();
+        }
+
+        long jsonBytes = 0;
+        long binaryBytes = 0;
+        long jsonNanos = 0;
+        long binaryNanos = 0;
+        for (int m = 0; m < messages; m++) {
+            JSONObject message = message(m);
+
+            long start = System.nanoTime();
+            OutboundFrame frame = OutboundFrame.of(message);
+            for (int r = 0; r < recipients; r++) {
+                jsonBytes += frame.asByteBuffer().remaining();
+            }
+            long afterJson = System.nanoTime();
+
+            OutboundFrame binaryFrame = OutboundFrame.of(message);
+            for (int r = 0; r < recipients; r++) {
+                ByteBuffer encoded = binaryFrame.asByteBuffer(encoders[r]);
+                binaryBytes += encoded.remaining();
+            }
+            long afterBinary = System.nanoTime();
+
+            jsonNanos += afterJson - start;
+            binaryNanos += afterBinary - afterJson;
+        }
+        long deliveries = (long) recipients * messages;
+        System.out.printf("%-7s %10.1f bytes/delivery %10.1f ns/delivery %12.1f MB total%n",
+                "json", (double) jsonBytes / deliveries, (double) jsonNanos / deliveries, jsonBytes / 1e6);
+        System.out.printf("%-7s %10.1f bytes/delivery %10.1f ns/delivery %12.1f MB total%n",
+                "binary", (double) binaryBytes / deliveries, (double) binaryNanos / deliveries, binaryBytes / 1e6);
+    }
+
+    private static JSONObject message(int m) {
+        JSONObject message = new JSONObject();
+        if (m % 3 == 2) {
+            message.put("type", MessageType.BOT_MESSAGE_DELTA.toString());
+            message.put("roomName", "distributed computation AI");
+            message.put("streamId", 1_000 + m / 30);
+            message.put("content", " tokens of a reply");
+        } else {
+            message.put("type", MessageType.MESSAGE_RECEIVED.toString());
+            message.put("roomName", "distributed computation AI");
+            message.put("sender", SENDERS[m % SENDERS.length]);
+            message.put("content", LINES[m % LINES.length]);
+            message.put("timestamp", Instant.now().toString());
+        }
+        return message;
+    }
+}
@@ -2,12 +2,17 @@ package client;
 
 import java.net.*;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import javax.swing.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.*;
 import org.json.JSONObject;
 import org.json.JSONArray;
 import org.json.JSONException;
+import common.BinaryWire;
 import common.MessageType;
+import common.WireFrameReader;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -20,11 +25,27 @@ import java.security.cert.X509Certificate;
 
 public class ChatClient {
     private SSLSocket socket;
-    private BufferedReader in;
-    private PrintWriter out;
+    private WireFrameReader in;
+    private OutputStream out;
+    // Framing of this connection: JSON until the server accepts binary in its auth response
+    private final Lock sendLock = new ReentrantLock();
+    private BinaryWire.Encoder binaryEncoder;
+    private BinaryWire.Decoder binaryDecoder;
+    // -Dchat.wire=binary: ask the server for compact binary framing (JSON is the default)
+    private static final boolean REQUEST_BINARY = BinaryWire.FRAMING_BINARY.equalsIgnoreCase(System.getProperty("chat.wire", BinaryWire.FRAMING_JSON));
     private ChatListener listener;
     private boolean isAuthenticated = false;
-    private String currentRoom = null;
+    private volatile String currentRoom = null;
+    // Ids of the oldest and newest logged messages seen in the current room (0: none yet), so
+    // /history knows where to continue and a replay after reconnecting skips what we already have
+    private volatile long oldestSeenId = 0;
+    private volatile long newestSeenId = 0;
+    private static final int HISTORY_PAGE = 50;
+    // Position in the current room's numbering (see ROOM_JOINED), sent with RECONNECT so the
+    // server can replay exactly the frames we missed. Like currentRoom, updated by the reader
+    // thread (trackRoomState) before frames are handed to the EDT
+    private volatile long roomEpoch = 0;
+    private volatile long lastSeq = 0;
 
     private final Lock authLock = new ReentrantLock();
     private final Condition authCondition = authLock.newCondition();
@@ -37,6 +58,12 @@ public class ChatClient {
     private static final String TRUSTSTORE_PATH = "client/client.truststore";
     private static final String TRUSTSTORE_PASSWORD = "changeit";
 
+    // One SSLContext for every connection of this process, so its client session cache survives
+    // reconnects (and new ChatClient instances) and later handshakes can resume the TLS session
+    private static SSLContext sharedSslContext;
+    private static final int SESSION_CACHE_SIZE = 16;
+    private static final int SESSION_TIMEOUT_SECONDS = 24 * 60 * 60;
+
 
     private String serverAddress = "";
     private int serverPort = 0;
@@ -48,13 +75,17 @@ public class ChatClient {
     private Thread heartbeatThread;
     private boolean heartbeatRunning = false;
 
+    private final AtomicBoolean reconnecting = new AtomicBoolean();
+    private volatile boolean disconnecting = false; // disconnect() was called
+    private volatile boolean quitting = false;      // /quit was sent, the server closes the connection
+
 
     public boolean connect(String serverAddress, int port) {
         this.serverAddress = serverAddress;
         this.serverPort = port;
         try {
             // Set up the SSL context with trust manager
-            SSLContext sslContext = createSSLContext();
+            SSLContext sslContext = getSSLContext();
 
             // Create SSL socket factory
             SSLSocketFactory sslSocketFactory = sslContext.getSocketFactory();
@@ -70,8 +101,15 @@ public class ChatClient {
             // Start handshake explicitly
             socket.startHandshake();
 
-            in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-            out = new PrintWriter(socket.getOutputStream(), true);
+            in = new WireFrameReader(socket.getInputStream());
+            out = new BufferedOutputStream(socket.getOutputStream());
+            sendLock.lock();
+            try {
+                binaryEncoder = null;
+                binaryDecoder = new BinaryWire.Decoder();
+            } finally {
+                sendLock.unlock();
+            }
             return true;
         } catch (IOException | GeneralSecurityException e) {
             e.printStackTrace();
@@ -79,7 +117,18 @@ public class ChatClient {
         }
     }
 
-    private SSLContext createSSLContext() throws GeneralSecurityException, IOException {
+    private static synchronized SSLContext getSSLContext() throws GeneralSecurityException, IOException {
+        if (sharedSslContext == null) {
+            SSLContext sslContext = createSSLContext();
+            SSLSessionContext sessionContext = sslContext.getClientSessionContext();
+            sessionContext.setSessionCacheSize(SESSION_CACHE_SIZE);
+            sessionContext.setSessionTimeout(SESSION_TIMEOUT_SECONDS);
+            sharedSslContext = sslContext;
+        }
+        return sharedSslContext;
+    }
+
+    private static SSLContext createSSLContext() throws GeneralSecurityException, IOException {
 
         if (new File(TRUSTSTORE_PATH).exists()) {
             KeyStore trustStore = KeyStore.getInstance("JKS");
@@ -139,8 +188,9 @@ public class ChatClient {
         registerRequest.put("type", MessageType.REGISTER_REQUEST.toString());
         registerRequest.put("username", username);
         registerRequest.put("password", password);
+        requestFraming(registerRequest);
 
-        out.println(registerRequest.toString());
+        send(registerRequest);
 
         authLock.lock();
         try {
@@ -161,9 +211,10 @@ public class ChatClient {
             if (authResponse.getString("type").equals(MessageType.REGISTER_RESPONSE.toString())) {
                 boolean success = authResponse.getBoolean("success");
                 if (success) {
+                    applyFraming(authResponse);
                     JSONObject readyMsg = new JSONObject();
                     readyMsg.put("type", "READY");
-                    out.println(readyMsg.toString());
+                    send(readyMsg);
                     isAuthenticated = true;
                     Token = authResponse.getString("message");
                     Username = username;
@@ -192,8 +243,9 @@ public class ChatClient {
         loginRequest.put("type", MessageType.LOGIN_REQUEST.toString());
         loginRequest.put("username", username);
         loginRequest.put("password", password);
+        requestFraming(loginRequest);
 
-        out.println(loginRequest.toString());
+        send(loginRequest);
 
         authLock.lock();
         try {
@@ -214,9 +266,10 @@ public class ChatClient {
             if (authResponse.getString("type").equals(MessageType.LOGIN_RESPONSE.toString())) {
                 boolean success = authResponse.getBoolean("success");
                 if (success) {
+                    applyFraming(authResponse);
                     JSONObject readyMsg = new JSONObject();
                     readyMsg.put("type", "READY");
-                    out.println(readyMsg.toString());
+                    send(readyMsg);
                     isAuthenticated = true;
                     Token = authResponse.getString("message");
                     Username = username;
@@ -238,12 +291,52 @@ public class ChatClient {
         }
     }
 
+    private void requestFraming(JSONObject authRequest) {
+        if (REQUEST_BINARY) {
+            authRequest.put(BinaryWire.FRAMING_KEY, BinaryWire.FRAMING_BINARY);
+        }
+    }
+
+    // Once the server accepts binary framing, everything we send after its response is binary
+    private void applyFraming(JSONObject authResponse) {
+        if (BinaryWire.FRAMING_BINARY.equals(authResponse.optString(BinaryWire.FRAMING_KEY))) {
+            sendLock.lock();
+            try {
+                if (binaryEncoder == null) {
+                    binaryEncoder = new BinaryWire.Encoder();
+                }
+            } finally {
+                sendLock.unlock();
+            }
+        }
+    }
+
+    // Writes one frame in the connection's framing. Errors are left to the reader thread,
+    // which sees the broken connection and reconnects.
+    private void send(JSONObject message) {
+        sendLock.lock();
+        try {
+            if (binaryEncoder != null) {
+                ByteBuffer frame = binaryEncoder.encode(message);
+                out.write(frame.array(), frame.arrayOffset() + frame.position(), frame.remaining());
+            } else {
+                out.write((message.toString() + "\n").getBytes(StandardCharsets.UTF_8));
+            }
+            out.flush();
+        } catch (IOException e) {
+            // reported by the reader
+        } finally {
+            sendLock.unlock();
+        }
+    }
+
     public void sendChatMessage(String content) {
         if (out != null) {
             JSONObject message = new JSONObject();
 
             if (content.startsWith("/")) {
                 if (content.equalsIgnoreCase("/quit")) {
+                    quitting = true;
                     message.put("type", MessageType.QUIT.toString());
                     message.put("content", content);
                 } else if (content.equalsIgnoreCase("/rooms")) {
@@ -263,6 +356,11 @@ public class ChatClient {
                 } else if (content.equalsIgnoreCase("/leave")) {
                     message.put("type", MessageType.LEAVE_ROOM.toString());
                     message.put("content", content);
+                } else if (content.equalsIgnoreCase("/history")) {
+                    message.put("type", MessageType.HISTORY_REQUEST.toString());
+                    message.put("roomName", currentRoom);
+                    message.put("beforeId", oldestSeenId);
+                    message.put("limit", HISTORY_PAGE);
                 }
             } else {
                 message.put("type", MessageType.SEND_MESSAGE.toString());
@@ -270,19 +368,26 @@ public class ChatClient {
                 message.put("roomName", currentRoom);
             }
 
-            out.println(message.toString());
+            send(message);
         }
     }
 
+    // Runs after the connection is lost, on the reader thread that noticed. Attempts follow
+    // ReconnectBackoff: the first one is immediate, later ones are jittered, a retry-after hint
+    // from the server is honoured, and the whole thing gives up once the time budget is spent or
+    // the server rejects the token (retrying cannot fix that, the user has to log in again).
     private boolean reconnect() {
-
-        int attempts = 0;
-        while (attempts < 5) {
+        ReconnectBackoff backoff = new ReconnectBackoff();
+        long retryAfterMs = 0;
+        long delay;
+        while ((delay = backoff.nextDelay(retryAfterMs)) >= 0) {
+            retryAfterMs = 0;
             try {
-                Thread.sleep(10000);
+                if (delay > 0) {
+                    Thread.sleep(delay);
+                }
 
                 if (!connect(serverAddress, serverPort)) {
-                    attempts++;
                     continue;
                 }
 
@@ -293,6 +398,11 @@ public class ChatClient {
                 reconnectMsg.put("token", Token);
                 reconnectMsg.put("username", Username);
                 reconnectMsg.put("roomName", currentRoom);
+                if (currentRoom != null && roomEpoch != 0) {
+                    reconnectMsg.put("epoch", roomEpoch);
+                    reconnectMsg.put("lastSeq", lastSeq);
+                }
+                requestFraming(reconnectMsg);
 
                 authLock.lock();
                 try {
@@ -302,7 +412,7 @@ public class ChatClient {
                     authLock.unlock();
                 }
 
-                out.println(reconnectMsg.toString());
+                send(reconnectMsg);
 
                 authLock.lock();
                 try {
@@ -313,37 +423,33 @@ public class ChatClient {
                         authCondition.await(waitTime, java.util.concurrent.TimeUnit.MILLISECONDS);
                     }
 
-                    if (!authResponseReceived) {
-                        attempts++;
+                    if (!authResponseReceived
+                            || !authResponse.getString("type").equals(MessageType.RECONNECT_RESPONSE.toString())) {
+                        closeSocketQuietly();
                         continue;
                     }
-                    if (authResponse.getString("type").equals(MessageType.RECONNECT_RESPONSE.toString())) {
-                        boolean success = authResponse.getBoolean("success");
-                        if (success) {
-                            isAuthenticated = true;
-                            startHeartbeat();
-                            return true;
-                        } else {
-                            attempts++;
-                            continue;
-                        }
-                    } else {
-                        attempts++;
-                        continue;
+                    if (authResponse.getBoolean("success")) {
+                        applyFraming(authResponse);
+                        isAuthenticated = true;
+                        startHeartbeat();
+                        return true;
+                    }
+                    closeSocketQuietly();
+                    retryAfterMs = authResponse.optLong("retryAfterMs");
+                    if (retryAfterMs <= 0) {
+                        break; // token rejected
                     }
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                    return false;
                 } catch (JSONException e) {
-                    attempts++;
-                    continue;
+                    closeSocketQuietly();
                 } finally {
                     authLock.unlock();
                 }
 
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
             } catch (Exception e) {
                 e.printStackTrace();
-                attempts++;
             }
         }
 
@@ -353,16 +459,24 @@ public class ChatClient {
         return false;
     }
 
-
-
+    private void closeSocketQuietly() {
+        try {
+            if (socket != null) {
+                socket.close();
+            }
+        } catch (IOException e) {
+            // already gone
+        }
+    }
 
     public void disconnect() {
+        disconnecting = true;
         stopHeartbeat();
         try {
             if (out != null) {
                 JSONObject quitMsg = new JSONObject();
                 quitMsg.put("type", MessageType.QUIT.toString());
-                out.println(quitMsg.toString());
+                send(quitMsg);
             }
             if (socket != null && !socket.isClosed()) {
                 socket.close();
@@ -378,7 +492,7 @@ public class ChatClient {
                 try {
                     JSONObject heartbeat = new JSONObject();
                     heartbeat.put("type", "HEARTBEAT");
-                    out.println(heartbeat.toString());
+                    send(heartbeat);
 
                     Thread.sleep(HEARTBEAT_INTERVAL);
 
@@ -413,10 +527,12 @@ public class ChatClient {
     private class IncomingMessageHandler implements Runnable {
         public void run() {
             try {
-                String jsonStr;
-                while ((jsonStr = in.readLine()) != null) {
+                while (in.next()) {
+                    String jsonStr = in.isBinary() ? "<binary frame>" : in.text();
                     try {
-                        final JSONObject jsonMessage = new JSONObject(jsonStr);
+                        final JSONObject jsonMessage = in.isBinary()
+                                ? binaryDecoder.decode(in.buffer(), 0, in.length())
+                                : new JSONObject(jsonStr);
                         String type = jsonMessage.getString("type");
 
                         // Authentication responses
@@ -434,6 +550,12 @@ public class ChatClient {
                             continue;
                         }
 
+                        // Here rather than on the EDT: reconnect() reads the position as soon as
+                        // this reader ends, and frames still waiting for the EDT must count
+                        if (!trackRoomState(jsonMessage)) {
+                            continue;
+                        }
+
                         // Process other message types
                         SwingUtilities.invokeLater(() -> {
                             processMessage(jsonMessage);
@@ -453,8 +575,19 @@ public class ChatClient {
                         socket.close();
                     }
                     isAuthenticated = false;
-                    startHeartbeat();
-                    reconnect();
+                    // Readers of failed attempts end while the reconnect loop is still running;
+                    // only one loop at a time, and none after a deliberate disconnect
+                    if (quitting) {
+                        if (listener != null) {
+                            SwingUtilities.invokeLater(() -> listener.onDisconnect());
+                        }
+                    } else if (!disconnecting && reconnecting.compareAndSet(false, true)) {
+                        try {
+                            reconnect();
+                        } finally {
+                            reconnecting.set(false);
+                        }
+                    }
                 } catch (IOException e) {
                     e.printStackTrace();
                 }
@@ -477,7 +610,8 @@ public class ChatClient {
                     case "ROOM_JOINED":
                         if (listener != null) {
                             String roomName = message.getString("roomName");
-                            currentRoom = roomName;
+                            oldestSeenId = 0;
+                            newestSeenId = 0;
                             listener.onRoomJoined(roomName);
                         }
                         break;
@@ -499,6 +633,7 @@ public class ChatClient {
                         break;
 
                     case "MESSAGE_RECEIVED":
+                        trackMessageId(message.optLong("id"));
                         if (listener != null) {
                             String sender = message.getString("sender");
                             String content = message.getString("content");
@@ -507,10 +642,50 @@ public class ChatClient {
                         }
                         break;
 
+                    case "BOT_MESSAGE_START":
+                        if (listener != null) {
+                            long streamId = message.getLong("streamId");
+                            String sender = message.getString("sender");
+                            String roomName = message.getString("roomName");
+                            listener.onBotMessageStart(streamId, sender, roomName);
+                        }
+                        break;
+
+                    case "BOT_MESSAGE_DELTA":
+                        if (listener != null) {
+                            long streamId = message.getLong("streamId");
+                            String content = message.getString("content");
+                            listener.onBotMessageDelta(streamId, content);
+                        }
+                        break;
+
+                    case "BOT_MESSAGE_END":
+                        trackMessageId(message.optLong("id"));
+                        if (listener != null) {
+                            long streamId = message.getLong("streamId");
+                            String sender = message.getString("sender");
+                            String content = message.getString("content");
+                            String roomName = message.getString("roomName");
+                            listener.onBotMessageEnd(streamId, sender, content, roomName);
+                        }
+                        break;
+
+                    case "HISTORY":
+                        processHistory(message);
+                        break;
+
+                    case "RESYNC":
+                        // Too much was missed to replay it; HISTORY follows with what the log has
+                        if (listener != null) {
+                            listener.onSystemMessage("Too much was missed while you were away to replay it all; showing the latest history instead.");
+                        }
+                        break;
+
                     case "ROOM_LEFT":
                         if (listener != null) {
                             String roomName = message.getString("roomName");
-                            currentRoom = null;
+                            oldestSeenId = 0;
+                            newestSeenId = 0;
                             listener.onRoomLeft(roomName);
                         }
                         break;
@@ -570,10 +745,88 @@ public class ChatClient {
                 System.err.println("Error processing message: " + e.getMessage());
             }
         }
+
+        // A page answering /history (it has "beforeId") is older than anything shown; a replay
+        // on join or reconnect may overlap what we have, so only the newer messages are kept
+        private void processHistory(JSONObject message) {
+            boolean older = message.has("beforeId");
+            String roomName = message.getString("roomName");
+            JSONArray entries = message.getJSONArray("messages");
+            long newest = newestSeenId;
+            List<HistoryMessage> messages = new ArrayList<>(entries.length());
+            for (int i = 0; i < entries.length(); i++) {
+                JSONObject entry = entries.getJSONObject(i);
+                long id = entry.getLong("id");
+                if (!older && id <= newest) {
+                    continue;
+                }
+                messages.add(new HistoryMessage(id, entry.getString("sender"), entry.getString("content"), entry.getString("timestamp")));
+                trackMessageId(id);
+            }
+            if (listener != null && (older || !messages.isEmpty())) {
+                listener.onHistory(roomName, messages, older, message.optBoolean("hasMore"));
+            }
+        }
+    }
+
+    private void trackMessageId(long id) {
+        if (id <= 0) {
+            return;
+        }
+        if (oldestSeenId == 0 || id < oldestSeenId) {
+            oldestSeenId = id;
+        }
+        if (id > newestSeenId) {
+            newestSeenId = id;
+        }
+    }
+
+    // Reader thread: the current room and its position. Sequenced frames arrive in order and only
+    // for the current room, so one at or below lastSeq was already received (a replay overlapping
+    // what the previous connection delivered); returns false for those so they are not shown twice
+    private boolean trackRoomState(JSONObject message) {
+        switch (message.getString("type")) {
+            case "ROOM_JOINED" -> {
+                currentRoom = message.getString("roomName");
+                roomEpoch = message.optLong("epoch");
+                lastSeq = message.optLong("seq");
+            }
+            case "RESYNC" -> {
+                roomEpoch = message.getLong("epoch");
+                lastSeq = message.getLong("seq");
+            }
+            case "ROOM_LEFT" -> {
+                currentRoom = null;
+                roomEpoch = 0;
+                lastSeq = 0;
+            }
+            case "MESSAGE_RECEIVED", "BOT_MESSAGE_END" -> {
+                long seq = message.optLong("seq");
+                if (seq > 0) {
+                    if (seq <= lastSeq) {
+                        return false;
+                    }
+                    lastSeq = seq;
+                }
+            }
+            default -> { }
+        }
+        return true;
+    }
+
+    public record HistoryMessage(long id, String sender, String content, String timestamp) {
     }
 
     public interface ChatListener {
         void onChatMessage(String sender, String content, String roomName);
+        // A streamed bot answer: deltas append to the message opened by start, end carries the
+        // full text and may arrive without a start (joined mid-stream)
+        void onBotMessageStart(long streamId, String sender, String roomName);
+        void onBotMessageDelta(long streamId, String delta);
+        void onBotMessageEnd(long streamId, String sender, String content, String roomName);
+        // Logged messages of the room, oldest first: older is true for a /history page, false
+        // for the replay on join or reconnect
+        void onHistory(String roomName, List<HistoryMessage> messages, boolean older, boolean hasMore);
         void onSystemMessage(String message);
         void onErrorMessage(String errorMessage);
         void onUserJoined(String username, String roomName);
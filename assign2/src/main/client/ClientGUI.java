@@ -4,9 +4,16 @@ import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
 import javax.swing.border.EmptyBorder;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.LinkedHashMap;
+import javax.swing.text.Element;
+import javax.swing.text.html.HTMLDocument;
 
 
 
@@ -32,6 +39,12 @@ public class ClientGUI extends JFrame implements ChatClient.ChatListener {
     private String serverAddress;
     private int serverPort;
 
+    // Bot answers still being streamed, by streamId; only touched on the EDT
+    private final transient Map<Long, StreamingMessage> streamingMessages = new HashMap<>();
+
+    private record StreamingMessage(String sender, StringBuilder text) {
+    }
+
 
     public ClientGUI(String serverAddress, int serverPort) {
         this.serverAddress = serverAddress;
@@ -336,6 +349,7 @@ public class ClientGUI extends JFrame implements ChatClient.ChatListener {
 
     public void onDisconnect() {
         SwingUtilities.invokeLater(() -> {
+            streamingMessages.clear();
             chatArea.setText("");
             messageField.setText("");
             usernameField.setText("");
@@ -354,6 +368,85 @@ public class ClientGUI extends JFrame implements ChatClient.ChatListener {
         onMessageReceived(formatted);
     }
 
+    // History is shown in grey with the time it was sent, so it stands apart from live messages
+    public void onHistory(String roomName, List<ChatClient.HistoryMessage> messages, boolean older, boolean hasMore) {
+        if (older && messages.isEmpty()) {
+            onSystemMessage("No older messages in " + roomName + ".");
+            return;
+        }
+        onSystemMessage(older ? "Older messages:" : "Recent messages:");
+        for (ChatClient.HistoryMessage message : messages) {
+            onMessageReceived(String.format("<span style='color:gray;'>[%s] <b>%s</b>: %s</span>",
+                    historyTime(message.timestamp()), message.sender(), message.content()));
+        }
+        if (hasMore) {
+            onSystemMessage("Type /history to see older messages.");
+        }
+    }
+
+    private static final DateTimeFormatter HISTORY_TIME = DateTimeFormatter.ofPattern("dd/MM HH:mm").withZone(ZoneId.systemDefault());
+
+    private static String historyTime(String timestamp) {
+        try {
+            return HISTORY_TIME.format(Instant.parse(timestamp));
+        } catch (DateTimeParseException e) {
+            return timestamp;
+        }
+    }
+
+    public void onBotMessageStart(long streamId, String sender, String roomName) {
+        SwingUtilities.invokeLater(() -> {
+            streamingMessages.put(streamId, new StreamingMessage(sender, new StringBuilder()));
+            try {
+                HTMLDocument doc = (HTMLDocument) chatArea.getDocument();
+                doc.insertAfterEnd(doc.getCharacterElement(doc.getLength()), streamingHtml(streamId, sender, ""));
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        });
+    }
+
+    public void onBotMessageDelta(long streamId, String delta) {
+        SwingUtilities.invokeLater(() -> {
+            StreamingMessage streaming = streamingMessages.get(streamId);
+            if (streaming == null) {
+                return; // joined mid-stream, the END message will carry the full text
+            }
+            streaming.text().append(delta);
+            replaceStreamingMessage(streamId, streaming.sender(), streaming.text().toString());
+        });
+    }
+
+    public void onBotMessageEnd(long streamId, String sender, String content, String roomName) {
+        SwingUtilities.invokeLater(() -> {
+            if (streamingMessages.remove(streamId) == null) {
+                onChatMessage(sender, content, roomName);
+                return;
+            }
+            replaceStreamingMessage(streamId, sender, content);
+        });
+    }
+
+    private void replaceStreamingMessage(long streamId, String sender, String text) {
+        HTMLDocument doc = (HTMLDocument) chatArea.getDocument();
+        Element element = doc.getElement("bot-stream-" + streamId);
+        if (element == null) {
+            return;
+        }
+        try {
+            doc.setOuterHTML(element, streamingHtml(streamId, sender, text));
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Partial text can stop in the middle of anything, so it is escaped rather than taken as HTML
+    private static String streamingHtml(long streamId, String sender, String text) {
+        String escaped = text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;")
+                .replace("\n", "<br>");
+        return "<div id='bot-stream-" + streamId + "'><b>" + sender + "</b>: " + escaped + "</div>";
+    }
+
     public void onSystemMessage(String message) {
         String formatted = "<i>" + message + "</i>";
         onMessageReceived(formatted);
@@ -0,0 +1,39 @@
+package client;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+// Delays between reconnect attempts, with "decorrelated jitter": each delay is drawn uniformly
+// between BASE_MS and three times the previous one, capped at CAP_MS. Clients that lost the same
+// server at the same moment drift apart after the first round instead of retrying in lockstep.
+// The first attempt is immediate (most drops are a broken link, not a dead server), and attempts
+// stop once BUDGET_MS has passed since the connection was lost, however many that took.
+final class ReconnectBackoff {
+    // -Dchat.reconnect.baseMs / -Dchat.reconnect.capMs / -Dchat.reconnect.budgetMs
+    static final long BASE_MS = Long.getLong("chat.reconnect.baseMs", 500);
+    static final long CAP_MS = Long.getLong("chat.reconnect.capMs", 30_000);
+    static final long BUDGET_MS = Long.getLong("chat.reconnect.budgetMs", 120_000);
+
+    private final long startNanos = System.nanoTime();
+    private long previousMs = BASE_MS;
+    private boolean first = true;
+
+    // Milliseconds to wait before the next attempt, or -1 if it would end past the budget.
+    // retryAfterMs is the server's hint from the previous attempt (0 if none); it is honoured as
+    // a minimum, plus a little jitter of our own.
+    long nextDelay(long retryAfterMs) {
+        long delay = 0;
+        if (!first || retryAfterMs > 0) {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            delay = Math.min(CAP_MS, random.nextLong(BASE_MS, Math.max(BASE_MS + 1, previousMs * 3)));
+            previousMs = delay;
+            if (retryAfterMs > 0) {
+                delay = Math.max(delay, retryAfterMs + random.nextLong(BASE_MS / 4 + 1));
+            }
+        }
+        first = false;
+        if ((System.nanoTime() - startNanos) / 1_000_000 + delay > BUDGET_MS) {
+            return -1;
+        }
+        return delay;
+    }
+}
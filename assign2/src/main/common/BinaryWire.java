@@ -0,0 +1,423 @@
+package common;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Compact binary framing, an alternative to newline-delimited JSON that a client can ask for
+// at login ("framing": "binary" in LOGIN_REQUEST / REGISTER_REQUEST / RECONNECT). It carries
+// the same flat messages:
+//
+//   frame   = length:u32be  payload                      (length < 2^24, so the first byte is 0)
+//   payload = typeCode:u8  field*                         (MessageType.code(); 0 = "type" is a field)
+//   field   = keyCode:u8 [key:string if keyCode = 0]  value
+//   value   = tag:u8 ...  (STRING, TRUE, FALSE, LONG, DOUBLE, NULL, STRING_LIST, JSON, INTERN_*)
+//
+// Lengths and integers are varints. The values of roomName, sender and username are interned per
+// connection and direction: the first use sends INTERN_DEF (id + text), later ones INTERN_REF.
+// A JSON frame always starts with '{', a binary one with 0, so readers tell them apart per frame
+// and either side can switch framing without a separate acknowledgement.
+public final class BinaryWire {
+    public static final String FRAMING_KEY = "framing";
+    public static final String FRAMING_BINARY = "binary";
+    public static final String FRAMING_JSON = "json";
+
+    public static final int HEADER_LENGTH = 4;
+    public static final int MAX_FRAME_LENGTH = 1 << 20;
+    // Interned strings per connection and direction; beyond this values are sent in full
+    static final int MAX_INTERNED = 4096;
+
+    private static final int TAG_STRING = 1;
+    private static final int TAG_TRUE = 2;
+    private static final int TAG_FALSE = 3;
+    private static final int TAG_LONG = 4;
+    private static final int TAG_DOUBLE = 5;
+    private static final int TAG_NULL = 6;
+    private static final int TAG_STRING_LIST = 7;
+    private static final int TAG_JSON = 8;
+    private static final int TAG_INTERN_DEF = 9;
+    private static final int TAG_INTERN_REF = 10;
+
+    // Key codes are part of the protocol: append, never reorder. Code 0 means the key follows as text.
+    private static final String[] KEYS = {
+            null, "type", "roomName", "sender", "content", "timestamp", "message", "success",
+            "streamId", "isAiRoom", "rooms", "username", "password", "token", FRAMING_KEY,
+            "id", "messages", "hasMore", "beforeId", "limit", "seq", "epoch", "lastSeq",
+    };
+    private static final int KEY_TYPE = 1;
+    private static final Map<String, Integer> KEY_CODES = new HashMap<>();
+    private static final boolean[] INTERNED_KEYS = new boolean[KEYS.length];
+
+    static {
+        for (int code = 1; code < KEYS.length; code++) {
+            KEY_CODES.put(KEYS[code], code);
+        }
+        INTERNED_KEYS[KEY_CODES.get("roomName")] = true;
+        INTERNED_KEYS[KEY_CODES.get("sender")] = true;
+        INTERNED_KEYS[KEY_CODES.get("username")] = true;
+    }
+
+    private BinaryWire() {
+    }
+
+    // A message with everything but its interned values already encoded, so a broadcast pays
+    // for the encoding once and each recipient only adds its own intern ids
+    public static final class Template {
+        private final int typeCode;
+        private final int[] internedKeys;
+        private final String[] internedValues;
+        private final byte[] fields;
+
+        private Template(int typeCode, int[] internedKeys, String[] internedValues, byte[] fields) {
+            this.typeCode = typeCode;
+            this.internedKeys = internedKeys;
+            this.internedValues = internedValues;
+            this.fields = fields;
+        }
+    }
+
+    public static Template template(JSONObject message) {
+        Sink fields = new Sink(64);
+        int typeCode = 0;
+        int[] internedKeys = new int[2];
+        String[] internedValues = new String[2];
+        int interned = 0;
+
+        for (String key : message.keySet()) {
+            Object value = message.opt(key);
+            Integer keyCode = KEY_CODES.get(key);
+            if (keyCode != null && keyCode == KEY_TYPE && value instanceof String type) {
+                MessageType known = messageType(type);
+                if (known != null) {
+                    typeCode = known.code();
+                    continue;
+                }
+            }
+            if (keyCode != null && INTERNED_KEYS[keyCode] && value instanceof String text) {
+                if (interned == internedKeys.length) {
+                    internedKeys = Arrays.copyOf(internedKeys, interned * 2);
+                    internedValues = Arrays.copyOf(internedValues, interned * 2);
+                }
+                internedKeys[interned] = keyCode;
+                internedValues[interned++] = text;
+                continue;
+            }
+            if (keyCode != null) {
+                fields.write(keyCode);
+            } else {
+                fields.write(0);
+                fields.writeString(key);
+            }
+            writeValue(fields, value);
+        }
+        return new Template(typeCode, Arrays.copyOf(internedKeys, interned),
+                Arrays.copyOf(internedValues, interned), fields.toByteArray());
+    }
+
+    private static MessageType messageType(String name) {
+        try {
+            return MessageType.valueOf(name);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static void writeValue(Sink out, Object value) {
+        if (value instanceof String text) {
+            out.write(TAG_STRING);
+            out.writeString(text);
+        } else if (value instanceof Boolean flag) {
+            out.write(flag ? TAG_TRUE : TAG_FALSE);
+        } else if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+            out.write(TAG_LONG);
+            long n = ((Number) value).longValue();
+            out.writeVarint((n << 1) ^ (n >> 63));
+        } else if (value instanceof Number number) {
+            out.write(TAG_DOUBLE);
+            out.writeLong(Double.doubleToLongBits(number.doubleValue()));
+        } else if (value == null || value == JSONObject.NULL) {
+            out.write(TAG_NULL);
+        } else if (value instanceof JSONArray array && isStringList(array)) {
+            out.write(TAG_STRING_LIST);
+            out.writeVarint(array.length());
+            for (int i = 0; i < array.length(); i++) {
+                out.writeString(array.getString(i));
+            }
+        } else {
+            // nested objects and mixed arrays travel as JSON text
+            out.write(TAG_JSON);
+            out.writeString(value.toString());
+        }
+    }
+
+    private static boolean isStringList(JSONArray array) {
+        for (int i = 0; i < array.length(); i++) {
+            if (!(array.opt(i) instanceof String)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Encodes frames for one direction of one connection. Not thread-safe: owned by the writer.
+    public static final class Encoder {
+        private final Map<String, Integer> interned = new HashMap<>();
+        private final Sink sink = new Sink(256);
+
+        public ByteBuffer encode(JSONObject message) {
+            return encode(template(message));
+        }
+
+        // A complete frame, header included, in a fresh buffer. Throws IllegalArgumentException if
+        // it would be longer than MAX_FRAME_LENGTH; the encoder is then as before the call
+        public ByteBuffer encode(Template template) {
+            int internedBefore = interned.size();
+            sink.reset();
+            sink.writeInt(0); // length, patched below
+            sink.write(template.typeCode);
+            for (int i = 0; i < template.internedKeys.length; i++) {
+                sink.write(template.internedKeys[i]);
+                String value = template.internedValues[i];
+                Integer id = interned.get(value);
+                if (id != null) {
+                    sink.write(TAG_INTERN_REF);
+                    sink.writeVarint(id);
+                } else if (interned.size() < MAX_INTERNED) {
+                    id = interned.size();
+                    interned.put(value, id);
+                    sink.write(TAG_INTERN_DEF);
+                    sink.writeVarint(id);
+                    sink.writeString(value);
+                } else {
+                    sink.write(TAG_STRING);
+                    sink.writeString(value);
+                }
+            }
+            sink.write(template.fields, 0, template.fields.length);
+            int payloadLength = sink.length - HEADER_LENGTH;
+            if (payloadLength > MAX_FRAME_LENGTH) {
+                // the peer never sees the strings defined in this frame
+                interned.values().removeIf(id -> id >= internedBefore);
+                throw new IllegalArgumentException("Frame too long: " + payloadLength + " bytes");
+            }
+            sink.patchInt(0, payloadLength);
+            return ByteBuffer.wrap(sink.toByteArray());
+        }
+    }
+
+    // Decodes the payloads (header stripped) of one direction of one connection, in order
+    public static final class Decoder {
+        private final List<String> interned = new ArrayList<>();
+        private byte[] buf;
+        private int pos;
+        private int end;
+
+        // Starts reading a payload; returns its type, or null if the type is sent as a field or unknown
+        public MessageType begin(byte[] payload, int offset, int length) throws JSONException {
+            buf = payload;
+            pos = offset;
+            end = offset + length;
+            return MessageType.fromCode(readByte());
+        }
+
+        public boolean hasNextField() {
+            return pos < end;
+        }
+
+        public String nextKey() throws JSONException {
+            int code = readByte();
+            if (code == 0) {
+                return readString();
+            }
+            if (code >= KEYS.length) {
+                throw malformed("unknown key code " + code);
+            }
+            return KEYS[code];
+        }
+
+        // String, Boolean, Long, Double, JSONObject.NULL, JSONArray or JSONObject
+        public Object nextValue() throws JSONException {
+            int tag = readByte();
+            switch (tag) {
+                case TAG_STRING:
+                    return readString();
+                case TAG_TRUE:
+                    return Boolean.TRUE;
+                case TAG_FALSE:
+                    return Boolean.FALSE;
+                case TAG_LONG: {
+                    long zigzag = readVarint();
+                    return (zigzag >>> 1) ^ -(zigzag & 1);
+                }
+                case TAG_DOUBLE:
+                    return Double.longBitsToDouble(readLong());
+                case TAG_NULL:
+                    return JSONObject.NULL;
+                case TAG_STRING_LIST: {
+                    int count = (int) readVarint();
+                    JSONArray list = new JSONArray();
+                    for (int i = 0; i < count; i++) {
+                        list.put(readString());
+                    }
+                    return list;
+                }
+                case TAG_JSON: {
+                    String json = readString();
+                    return json.startsWith("[") ? new JSONArray(json) : new JSONObject(json);
+                }
+                case TAG_INTERN_DEF: {
+                    int id = (int) readVarint();
+                    String value = readString();
+                    // same bound as the encoder: a peer cannot grow this table without limit
+                    if (id >= MAX_INTERNED) {
+                        throw malformed("intern id " + id + " over the limit of " + MAX_INTERNED);
+                    }
+                    if (id != interned.size()) {
+                        throw malformed("intern id " + id + " out of order");
+                    }
+                    interned.add(value);
+                    return value;
+                }
+                case TAG_INTERN_REF: {
+                    int id = (int) readVarint();
+                    if (id >= interned.size()) {
+                        throw malformed("unknown intern id " + id);
+                    }
+                    return interned.get(id);
+                }
+                default:
+                    throw malformed("unknown value tag " + tag);
+            }
+        }
+
+        public JSONObject decode(byte[] payload, int offset, int length) throws JSONException {
+            JSONObject message = new JSONObject();
+            MessageType type = begin(payload, offset, length);
+            if (type != null) {
+                message.put("type", type.toString());
+            }
+            while (hasNextField()) {
+                String key = nextKey();
+                message.put(key, nextValue());
+            }
+            return message;
+        }
+
+        private int readByte() {
+            if (pos >= end) {
+                throw malformed("truncated");
+            }
+            return buf[pos++] & 0xFF;
+        }
+
+        private long readVarint() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw malformed("varint too long");
+        }
+
+        private long readLong() {
+            long value = 0;
+            for (int i = 0; i < 8; i++) {
+                value = (value << 8) | readByte();
+            }
+            return value;
+        }
+
+        private String readString() {
+            long length = readVarint();
+            if (length < 0 || length > end - pos) {
+                throw malformed("string length " + length);
+            }
+            String value = new String(buf, pos, (int) length, StandardCharsets.UTF_8);
+            pos += (int) length;
+            return value;
+        }
+
+        private JSONException malformed(String detail) {
+            return new JSONException("Malformed binary frame: " + detail);
+        }
+    }
+
+    // Growable byte array with the primitive writers used above
+    private static final class Sink {
+        private byte[] bytes;
+        private int length;
+
+        Sink(int capacity) {
+            bytes = new byte[capacity];
+        }
+
+        void reset() {
+            length = 0;
+        }
+
+        void write(int b) {
+            ensure(1);
+            bytes[length++] = (byte) b;
+        }
+
+        void write(byte[] src, int offset, int count) {
+            ensure(count);
+            System.arraycopy(src, offset, bytes, length, count);
+            length += count;
+        }
+
+        void writeVarint(long value) {
+            while ((value & ~0x7FL) != 0) {
+                write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            write((int) value);
+        }
+
+        void writeInt(int value) {
+            ensure(4);
+            patchInt(length, value);
+            length += 4;
+        }
+
+        void patchInt(int at, int value) {
+            bytes[at] = (byte) (value >>> 24);
+            bytes[at + 1] = (byte) (value >>> 16);
+            bytes[at + 2] = (byte) (value >>> 8);
+            bytes[at + 3] = (byte) value;
+        }
+
+        void writeLong(long value) {
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                write((int) (value >>> shift));
+            }
+        }
+
+        void writeString(String value) {
+            byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+            writeVarint(utf8.length);
+            write(utf8, 0, utf8.length);
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(bytes, length);
+        }
+
+        private void ensure(int extra) {
+            if (length + extra > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + extra));
+            }
+        }
+    }
+}
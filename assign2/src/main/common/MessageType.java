@@ -1,31 +1,65 @@
 package common;
 
+// code is the type's number in binary frames (see BinaryWire); codes are part of the protocol,
+// so new types get a new code instead of renumbering existing ones
 public enum MessageType {
     // Client -> Server messages
-    LOGIN_REQUEST,
-    REGISTER_REQUEST,
-    JOIN_ROOM,
-    LEAVE_ROOM,
-    LIST_ROOMS,
-    SEND_MESSAGE,
-    LIST_CUR_ROOM,
-    LIST_CMDS,
-    QUIT,
-    RECONNECT,
-    HEARTBEAT,
+    LOGIN_REQUEST(1),
+    REGISTER_REQUEST(2),
+    JOIN_ROOM(3),
+    LEAVE_ROOM(4),
+    LIST_ROOMS(5),
+    SEND_MESSAGE(6),
+    LIST_CUR_ROOM(7),
+    LIST_CMDS(8),
+    QUIT(9),
+    RECONNECT(10),
+    HEARTBEAT(11),
+    READY(12),
+    HISTORY_REQUEST(13),
 
     // Server -> Client messages
-    LOGIN_RESPONSE,
-    REGISTER_RESPONSE,
-    ROOM_JOINED,
-    ROOM_LEFT,
-    ROOM_LIST,
-    ROOM,
-    CMDS,
-    USER_JOINED,
-    USER_LEFT,
-    MESSAGE_RECEIVED,
-    ERROR,
-    RECONNECT_RESPONSE,
-    HEARTBEAT_ACK,
-}
\ No newline at end of file
+    LOGIN_RESPONSE(32),
+    REGISTER_RESPONSE(33),
+    ROOM_JOINED(34),
+    ROOM_LEFT(35),
+    ROOM_LIST(36),
+    ROOM(37),
+    CMDS(38),
+    USER_JOINED(39),
+    USER_LEFT(40),
+    MESSAGE_RECEIVED(41),
+    ERROR(42),
+    RECONNECT_RESPONSE(43),
+    HEARTBEAT_ACK(44),
+    WELCOME(45),
+    BOT_MESSAGE_START(46),
+    BOT_MESSAGE_DELTA(47),
+    BOT_MESSAGE_END(48),
+    HISTORY(49),
+    RESYNC(50),
+    ;
+
+    private static final MessageType[] BY_CODE = new MessageType[128];
+
+    static {
+        for (MessageType type : values()) {
+            BY_CODE[type.code] = type;
+        }
+    }
+
+    private final int code;
+
+    MessageType(int code) {
+        this.code = code;
+    }
+
+    public int code() {
+        return code;
+    }
+
+    // null for codes no type uses
+    public static MessageType fromCode(int code) {
+        return code >= 0 && code < BY_CODE.length ? BY_CODE[code] : null;
+    }
+}
@@ -0,0 +1,88 @@
+package common;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// Reads frames of either framing from a stream: a JSON line, or a length-prefixed binary frame
+// (see BinaryWire). Which one is decided per frame by its first byte. The frame buffer is reused,
+// so the bytes of a frame are only valid until the next call to next().
+public final class WireFrameReader {
+    private final InputStream in;
+    private byte[] buffer = new byte[256];
+    private int length;
+    private boolean binary;
+
+    public WireFrameReader(InputStream in) {
+        this.in = new BufferedInputStream(in);
+    }
+
+    // Reads the next frame; false at end of stream
+    public boolean next() throws IOException {
+        int first = in.read();
+        if (first < 0) {
+            return false;
+        }
+        if (first == 0) {
+            binary = true;
+            int b1 = in.read();
+            int b2 = in.read();
+            int b3 = in.read();
+            if ((b1 | b2 | b3) < 0) {
+                throw new IOException("Truncated frame header");
+            }
+            length = (b1 << 16) | (b2 << 8) | b3;
+            if (length > BinaryWire.MAX_FRAME_LENGTH) {
+                throw new IOException("Frame too long: " + length + " bytes");
+            }
+            ensure(length);
+            if (in.readNBytes(buffer, 0, length) < length) {
+                throw new IOException("Truncated frame");
+            }
+            return true;
+        }
+
+        // Same line semantics as BufferedReader.readLine: "\n" or "\r\n", last line may be unterminated
+        binary = false;
+        length = 0;
+        int b = first;
+        while (b >= 0 && b != '\n') {
+            if (length == BinaryWire.MAX_FRAME_LENGTH) {
+                throw new IOException("Frame too long");
+            }
+            ensure(length + 1);
+            buffer[length++] = (byte) b;
+            b = in.read();
+        }
+        if (length > 0 && buffer[length - 1] == '\r') {
+            length--;
+        }
+        return true;
+    }
+
+    public boolean isBinary() {
+        return binary;
+    }
+
+    // The current JSON frame
+    public String text() {
+        return new String(buffer, 0, length, StandardCharsets.UTF_8);
+    }
+
+    // The current binary frame's payload is buffer()[0, length())
+    public byte[] buffer() {
+        return buffer;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    private void ensure(int capacity) {
+        if (capacity > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(capacity, buffer.length * 2));
+        }
+    }
+}
@@ -1,36 +1,89 @@
 package server;
 
 import common.MessageType;
+import org.json.JSONArray;
 import org.json.JSONObject;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.time.Instant;
 
 public class AIRoom extends Room {
     private String aiPrompt;
     private String aiModel;
+    private final LlmBackend llm;
     private static final String BOT_NAME = "Bot";
+
+    // Generation scheduling: a burst of messages yields one bot reply. A generation starts once
+    // the room has been quiet for REPLY_DEBOUNCE_MS, but never later than REPLY_MAX_DELAY_MS
+    // after the first unanswered message, and only one runs at a time per room; messages that
+    // arrive while it runs are folded into the next one.
+    // -Dchat.bot.debounceMs / -Dchat.bot.maxDelayMs
+    static final long REPLY_DEBOUNCE_MS = Long.getLong("chat.bot.debounceMs", 400);
+    static final long REPLY_MAX_DELAY_MS = Long.getLong("chat.bot.maxDelayMs", 2_000);
+    // -Dchat.bot.replyMode=addressed: only messages mentioning @Bot trigger a reply
+    // (the others still go into the history)
+    static final boolean REPLY_WHEN_ADDRESSED_ONLY = "addressed".equalsIgnoreCase(System.getProperty("chat.bot.replyMode", "all"));
+
+    private final Lock generationLock = new ReentrantLock();
+    private boolean generationScheduled = false; // a generation thread is waiting or running
+    private boolean replyPending = false;        // a message arrived that no generation has seen yet
+    private long firstPendingNanos;
+    private long lastPendingNanos;
     
-    // Lista para manter o histórico de mensagens para contexto da AI
-    private List<String> messageHistory;
-    private final Lock historyLock = new ReentrantLock();
+    // Context sent to the model: the most recent turns within a token budget rather than a fixed
+    // number of messages. With -Dchat.bot.summarize=true, turns that fall out of the window are
+    // folded into a running summary instead of being forgotten.
+    // -Dchat.bot.contextTokens / -Dchat.bot.summarize
+    static final int CONTEXT_TOKENS = Integer.getInteger("chat.bot.contextTokens", 1_500);
+    static final boolean SUMMARIZE_EVICTED = Boolean.getBoolean("chat.bot.summarize");
+
+    // Histórico de mensagens para contexto da AI
+    private final ConversationWindow history;
+
+    // With context reuse (the default, -Dchat.bot.reuseContext=false to turn it off) each reply
+    // continues the room's conversation inside Ollama: the first prompt carries the rendered
+    // window, later ones only the turns that arrived since (each followed by the reply
+    // instruction), and kvContext (Ollama's context from the previous reply) stands for
+    // everything before. The conversation restarts from the window once the context outgrows
+    // twice the token budget, or after a failed reply.
+    static final boolean REUSE_CONTEXT = !"false".equalsIgnoreCase(System.getProperty("chat.bot.reuseContext", "true"));
+    private JSONArray kvContext = null; // only used by the room's generation thread
     
-    public AIRoom(String name, String aiPrompt, String aiModel) {
-        super(name);
+    // Backend for rooms created without one, built from -Dchat.llm.backend on first use
+    private static final class DefaultBackend {
+        static final LlmBackend INSTANCE = LlmBackend.fromConfig();
+    }
+
+    public static LlmBackend defaultBackend() {
+        return DefaultBackend.INSTANCE;
+    }
+
+    public AIRoom(String name, String aiPrompt, String aiModel, LlmBackend llm, MessageLog log) {
+        super(name, log);
+        this.llm = llm;
         this.aiPrompt = aiPrompt != null ? aiPrompt : "You are a helpful assistant in a chat room.";
         this.aiModel = aiModel != null ? aiModel : "phi3";
-        this.messageHistory = new ArrayList<>();
-        
-        // Adicionar o prompt inicial ao histórico
-        historyLock.lock();
-        try {
-            messageHistory.add("System: " + this.aiPrompt);
-        } finally {
-            historyLock.unlock();
+        // O prompt inicial fica sempre no início do contexto
+        this.history = new ConversationWindow("System: " + this.aiPrompt, CONTEXT_TOKENS, SUMMARIZE_EVICTED);
+        if (log != null) {
+            seedHistory(log);
         }
     }
+
+    public AIRoom(String name, String aiPrompt, String aiModel, LlmBackend llm) {
+        this(name, aiPrompt, aiModel, llm, null);
+    }
+
+    public AIRoom(String name, String aiPrompt, String aiModel) {
+        this(name, aiPrompt, aiModel, defaultBackend());
+    }
     
     // Construtor simplificado - só com prompt (usa modelo padrão)
     public AIRoom(String name, String aiPrompt) {
@@ -43,53 +96,129 @@ public class AIRoom extends Room {
         super.broadcastMessage(content, sender);
         
         // Adicionar a mensagem ao histórico
-        String userMessage = sender.getClient().getUsername() + ": " + content;
-        historyLock.lock();
+        history.append(sender.getClient().getUsername() + ": " + content);
+        
+        if (!REPLY_WHEN_ADDRESSED_ONLY || isAddressedToBot(content)) {
+            requestReply();
+        } else {
+            // no reply follows to trigger it, and evicted turns must not pile up until one does
+            summarizeEvictedTurns();
+        }
+    }
+
+    // After a restart the conversation picks up from the room's log: the newest turns that fit
+    // the window, so nothing is evicted (or summarised) just by seeding
+    private void seedHistory(MessageLog log) {
+        List<MessageLog.Entry> recent = log.latest(MessageLog.RECENT_CAPACITY);
+        int first = recent.size();
+        int tokens = 0;
+        while (first > 0) {
+            MessageLog.Entry entry = recent.get(first - 1);
+            tokens += ConversationWindow.estimateTokens(entry.sender() + ": " + entry.content());
+            if (tokens > CONTEXT_TOKENS) {
+                break;
+            }
+            first--;
+        }
+        for (MessageLog.Entry entry : recent.subList(first, recent.size())) {
+            history.append(entry.sender() + ": " + entry.content());
+        }
+    }
+
+    private static boolean isAddressedToBot(String content) {
+        return content.toLowerCase(Locale.ROOT).contains("@" + BOT_NAME.toLowerCase(Locale.ROOT));
+    }
+
+    // Marks a reply as wanted and starts the room's generation thread if none is active
+    private void requestReply() {
+        long now = System.nanoTime();
+        generationLock.lock();
         try {
-            messageHistory.add(userMessage);
-            
-            // Manter apenas as últimas 20 mensagens para evitar contexto muito grande
-            if (messageHistory.size() > 20) {
-                messageHistory.remove(0);
+            if (!replyPending) {
+                firstPendingNanos = now;
+            }
+            replyPending = true;
+            lastPendingNanos = now;
+            if (generationScheduled) {
+                return;
             }
+            generationScheduled = true;
         } finally {
-            historyLock.unlock();
+            generationLock.unlock();
         }
-        
         // Gerar resposta do bot de forma assíncrona
-        Thread.startVirtualThread(() -> generateBotResponse());
+        Thread.startVirtualThread(this::runScheduledGenerations);
+    }
+
+    private void runScheduledGenerations() {
+        while (true) {
+            long waitNanos;
+            generationLock.lock();
+            try {
+                if (!replyPending) {
+                    generationScheduled = false;
+                    return;
+                }
+                long now = System.nanoTime();
+                long quietAt = lastPendingNanos + REPLY_DEBOUNCE_MS * 1_000_000;
+                long deadline = firstPendingNanos + REPLY_MAX_DELAY_MS * 1_000_000;
+                waitNanos = Math.min(quietAt, deadline) - now;
+                if (waitNanos <= 0) {
+                    // everything up to here is in the history this generation will read
+                    replyPending = false;
+                }
+            } finally {
+                generationLock.unlock();
+            }
+
+            if (waitNanos > 0) {
+                try {
+                    Thread.sleep(waitNanos / 1_000_000, (int) (waitNanos % 1_000_000));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    generationLock.lock();
+                    try {
+                        generationScheduled = false;
+                    } finally {
+                        generationLock.unlock();
+                    }
+                    return;
+                }
+                continue;
+            }
+
+            generateBotResponse();
+        }
     }
     
     private void generateBotResponse() {
         try {
-            // Verificar se o Ollama está disponível
-            if (!OllamaClient.isAvailable()) {
+            // Verificar se o Ollama está disponível (estado em cache, sem pedido HTTP)
+            if (!llm.isAvailable()) {
                 System.err.println("Ollama não está disponível");
                 return;
             }
             
-            // Construir o contexto completo
-            String fullContext = buildContext();
-            
-            // Gerar resposta usando o Ollama
-            String aiResponse = OllamaClient.generateResponse(fullContext, aiModel);
+            // Gerar resposta usando o Ollama, enviada aos clientes à medida que chega
+            LlmBackend.Generation generation;
+            if (REUSE_CONTEXT) {
+                JSONArray context = kvContext;
+                // the reply instruction closes every prompt, or later turns reach the model bare
+                String prompt = buildContext(context == null ? history.renderForNewSession() : history.takeNewTurns());
+                generation = streamBotResponse(onChunk -> llm.generate(prompt, context, aiModel, onChunk));
+                boolean keep = generation != null && generation.context() != null
+                        && generation.context().length() <= CONTEXT_TOKENS * 2;
+                kvContext = keep ? generation.context() : null;
+            } else {
+                // Construir o contexto completo
+                String prompt = buildContext(history.render());
+                generation = streamBotResponse(onChunk -> llm.generate(prompt, null, aiModel, onChunk));
+            }
             
-            if (aiResponse != null && !aiResponse.trim().isEmpty()) {
-                // Adicionar resposta do bot ao histórico
-                historyLock.lock();
-                try {
-                    messageHistory.add(BOT_NAME + ": " + aiResponse);
-                    
-                    // Manter limite do histórico
-                    if (messageHistory.size() > 20) {
-                        messageHistory.remove(0);
-                    }
-                } finally {
-                    historyLock.unlock();
-                }
-                
-                // Enviar resposta do bot para todos os clientes
-                broadcastBotMessage(aiResponse);
+            if (generation != null && !generation.failed() && !generation.text().isEmpty()) {
+                // Adicionar resposta do bot ao histórico (o modelo já a conhece)
+                history.appendSent(BOT_NAME + ": " + generation.text());
+                summarizeEvictedTurns();
             }
         } catch (Exception e) {
             System.err.println("Erro ao gerar resposta do Bot: " + e.getMessage());
@@ -97,17 +226,8 @@ public class AIRoom extends Room {
         }
     }
     
-    private String buildContext() {
-        StringBuilder context = new StringBuilder();
-        
-        historyLock.lock();
-        try {
-            for (String message : messageHistory) {
-                context.append(message).append("\n");
-            }
-        } finally {
-            historyLock.unlock();
-        }
+    private String buildContext(String conversation) {
+        StringBuilder context = new StringBuilder(conversation);
         
         // Adicionar instrução para o bot
         context.append("\nResponde como um assistente útil na sala de chat '")
@@ -117,7 +237,64 @@ public class AIRoom extends Room {
         return context.toString();
     }
     
+    // Folds turns that left the context window into the room's summary, in the background and
+    // through the dispatcher like any other call. On failure the old summary is kept.
+    private void summarizeEvictedTurns() {
+        List<String> evicted = history.beginSummary();
+        if (evicted == null) {
+            return;
+        }
+        StringBuilder prompt = new StringBuilder();
+        String previous = history.getSummary();
+        if (previous != null) {
+            prompt.append("Resumo até agora: ").append(previous).append("\n");
+        }
+        prompt.append("Mensagens seguintes:\n");
+        for (String line : evicted) {
+            prompt.append(line).append("\n");
+        }
+        prompt.append("\nEscreve um resumo curto (no máximo 80 palavras) de toda a conversa acima, ")
+                .append("mantendo nomes, factos e decisões importantes:");
+
+        LlmDispatcher.shared()
+                .submit(getName(), () -> llm.generateOrFail(prompt.toString(), aiModel))
+                .whenComplete((summary, e) -> history.completeSummary(e == null ? summary : null));
+    }
+
+    // Streams the answer to the room as BOT_MESSAGE_START/DELTA/END and returns the generation.
+    // Error replies produce no chunks and are sent as a normal bot message instead.
+    // The call goes through the shared LlmDispatcher; returns null if it was shed there.
+    private LlmBackend.Generation streamBotResponse(
+            Function<Consumer<String>, CompletableFuture<LlmBackend.Generation>> request) {
+        BotMessageStream stream = new BotMessageStream(this, BOT_NAME);
+        LlmBackend.Generation generation;
+        try {
+            generation = LlmDispatcher.shared()
+                    .submit(getName(), () -> request.apply(stream::append))
+                    .join();
+        } catch (CompletionException e) {
+            if (!(e.getCause() instanceof RejectedExecutionException)) {
+                throw e;
+            }
+            System.err.println("Pedido ao Ollama descartado na sala '" + getName() + "': " + e.getCause().getMessage());
+            broadcastBotMessage("Estou com demasiados pedidos neste momento, tenta novamente daqui a pouco.");
+            return null;
+        }
+        String response = generation.text();
+        boolean logged = !generation.failed();
+        if (!stream.end(response, logged) && !response.isEmpty()) {
+            broadcastBotMessage(response, logged);
+        }
+        return generation;
+    }
+
+    // Welcomes, notices and fallback replies are sequenced like any message but not logged, only
+    // actual replies are
     private void broadcastBotMessage(String content) {
+        broadcastBotMessage(content, false);
+    }
+
+    private void broadcastBotMessage(String content, boolean logged) {
         JSONObject message = new JSONObject();
         
         message.put("type", MessageType.MESSAGE_RECEIVED.toString());
@@ -126,47 +303,41 @@ public class AIRoom extends Room {
         message.put("content", content);
         message.put("timestamp", Instant.now().toString());
         
-        String jsonMessage = message.toString();
-        
-        clientListLock.lock();
-        try {
-            for (ClientHandler client : clients) {
-                client.sendJsonMessage(jsonMessage);
-            }
-        } finally {
-            clientListLock.unlock();
-        }
+        broadcastSequenced(message, logged);
     }
     
+    // Quando um novo utilizador entra na sala AI, enviar uma mensagem de boas-vindas do bot.
+    // Called once ROOM_JOINED is queued, so the welcome always arrives after it. The text comes
+    // from a per-room template in WelcomeCache; only a cache miss costs an LLM call.
     @Override
-    public void addClient(ClientHandler client) {
-        super.addClient(client);
-        
-        // Quando um novo utilizador entra na sala AI, enviar uma mensagem de boas-vindas do bot
-        Thread.startVirtualThread(() -> {
-            try {
-                Thread.sleep(1000); // Pequena pausa para dar tempo ao cliente conectar-se
-                
-                if (!OllamaClient.isAvailable()) {
-                    broadcastBotMessage("Olá! Eu sou o Bot desta sala, mas estou com problemas de ligação ao AI. 🤖");
-                    return;
-                }
-                
-                String welcomePrompt = String.format(
-                    "Um novo utilizador '%s' entrou na sala de chat AI '%s'. " +
-                    "Dá-lhe as boas-vindas de forma amigável e explica brevemente o propósito desta sala.",
-                    client.getClient().getUsername(),
-                    getName()
-                );
-                
-                String welcomeResponse = OllamaClient.generateResponse(welcomePrompt, aiModel);
-                if (welcomeResponse != null && !welcomeResponse.trim().isEmpty()) {
-                    broadcastBotMessage(welcomeResponse);
-                }
-            } catch (Exception e) {
-                System.err.println("Erro ao gerar mensagem de boas-vindas: " + e.getMessage());
-            }
-        });
+    public void onJoinAcknowledged(ClientHandler client) {
+        String username = client.getClient().getUsername();
+        if (!llm.isAvailable()) {
+            broadcastBotMessage("Olá! Eu sou o Bot desta sala, mas estou com problemas de ligação ao AI. 🤖");
+            return;
+        }
+
+        String welcomePrompt = String.format(
+            "Escreve uma mensagem de boas-vindas para um novo utilizador que entrou na sala de chat AI '%s'. " +
+            "Dá-lhe as boas-vindas de forma amigável e explica brevemente o propósito desta sala. " +
+            "Não inventes um nome: escreve exatamente %s no lugar do nome do utilizador.",
+            getName(),
+            WelcomeCache.PLACEHOLDER
+        );
+
+        WelcomeCache.shared()
+                .get(WelcomeCache.key(getName(), aiModel, aiPrompt),
+                        () -> LlmDispatcher.shared().submit(getName(), () -> llm.generateOrFail(welcomePrompt, aiModel)))
+                .whenComplete((template, e) -> {
+                    Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                    if (e == null) {
+                        broadcastBotMessage(WelcomeCache.personalize(template, username));
+                    } else if (!(cause instanceof RejectedExecutionException)) {
+                        // shed welcomes are dropped quietly; the room is busy enough already
+                        System.err.println("Erro ao gerar mensagem de boas-vindas: " + cause);
+                        broadcastBotMessage("Olá " + username + "! Eu sou o Bot desta sala, mas estou com problemas de ligação ao AI. 🤖");
+                    }
+                });
     }
     
     // Getters
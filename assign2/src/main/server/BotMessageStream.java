@@ -0,0 +1,138 @@
+package server;
+
+import common.MessageType;
+import org.json.JSONObject;
+
+import java.time.Instant;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+// One streamed bot answer: BOT_MESSAGE_START, any number of BOT_MESSAGE_DELTA, then BOT_MESSAGE_END.
+// Ollama emits roughly one chunk per token; forwarding each one as its own frame would multiply
+// the outbound traffic of the room, so chunks are coalesced and a delta goes out once it holds
+// FLUSH_CHARS characters or FLUSH_INTERVAL_MS has passed since the previous one. The first
+// chunk is always sent straight away, that is the whole point of streaming. Text left pending
+// is flushed by a timer FLUSH_INTERVAL_MS later, so a model that stalls mid-answer does not hold
+// back what it has already produced.
+//
+// START is only sent once the first chunk arrives. BOT_MESSAGE_END carries the complete text,
+// so clients that joined mid-stream (or lost deltas to a DROP_* overflow policy) still end up
+// with the right message. END is the only sequenced frame of the stream (see Room): the finished
+// answer goes into the room's log and END carries its id and seq (unless the generation failed
+// and END carries the fallback reply, which is not logged).
+final class BotMessageStream {
+    // -Dchat.bot.streamFlushMs / -Dchat.bot.streamFlushChars
+    static final long FLUSH_INTERVAL_MS = Long.getLong("chat.bot.streamFlushMs", 50);
+    static final int FLUSH_CHARS = Integer.getInteger("chat.bot.streamFlushChars", 64);
+
+    private static final AtomicLong NEXT_ID = new AtomicLong();
+
+    // One timer thread for every stream; each stream has at most one flush scheduled at a time
+    private static final ScheduledExecutorService FLUSH_TIMER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "bot-stream-flush");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Room room;
+    private final String sender;
+    private final long streamId = NEXT_ID.incrementAndGet();
+
+    private final Lock lock = new ReentrantLock();
+    private final StringBuilder pending = new StringBuilder();
+    private long lastFlushNanos;
+    private boolean started;
+    private boolean sentDelta;
+    private boolean flushTimerSet;
+
+    BotMessageStream(Room room, String sender) {
+        this.room = room;
+        this.sender = sender;
+    }
+
+    void append(String chunk) {
+        lock.lock();
+        try {
+            if (!started) {
+                start();
+            }
+            pending.append(chunk);
+            long now = System.nanoTime();
+            if (!sentDelta || pending.length() >= FLUSH_CHARS
+                    || now - lastFlushNanos >= FLUSH_INTERVAL_MS * 1_000_000) {
+                flush(now);
+            }
+            if (!pending.isEmpty() && !flushTimerSet) {
+                flushTimerSet = true;
+                FLUSH_TIMER.schedule(this::timedFlush, FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Timer thread; does nothing if the stream has ended meanwhile
+    private void timedFlush() {
+        lock.lock();
+        try {
+            flushTimerSet = false;
+            flush(System.nanoTime());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Returns false if no chunk was ever streamed, in which case nothing was sent and the caller
+    // should deliver content as an ordinary message (if there is any)
+    boolean end(String content, boolean logged) {
+        lock.lock();
+        try {
+            if (!started) {
+                return false;
+            }
+            started = false;
+            // pending is not flushed: END already carries the full text
+            pending.setLength(0);
+            JSONObject message = header(MessageType.BOT_MESSAGE_END);
+            message.put("sender", sender);
+            message.put("content", content);
+            message.put("timestamp", Instant.now().toString());
+            room.broadcastSequenced(message, logged);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void start() {
+        started = true;
+        JSONObject message = header(MessageType.BOT_MESSAGE_START);
+        message.put("sender", sender);
+        message.put("timestamp", Instant.now().toString());
+        room.broadcastFrame(OutboundFrame.of(message));
+    }
+
+    private void flush(long now) {
+        if (!started || pending.isEmpty()) {
+            return;
+        }
+        JSONObject message = header(MessageType.BOT_MESSAGE_DELTA);
+        message.put("content", pending.toString());
+        pending.setLength(0);
+        lastFlushNanos = now;
+        sentDelta = true;
+        room.broadcastFrame(OutboundFrame.of(message));
+    }
+
+    private JSONObject header(MessageType type) {
+        JSONObject message = new JSONObject();
+        message.put("type", type.toString());
+        message.put("roomName", room.getName());
+        message.put("streamId", streamId);
+        return message;
+    }
+}
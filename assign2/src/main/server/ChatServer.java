@@ -7,13 +7,17 @@ import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 import common.MessageType;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import javax.net.ssl.*;
 import java.security.*;
+import java.nio.file.Path;
 
 
 public class ChatServer {
 
     private int port;
+    private final String transport;
+    private final LlmBackend llmBackend;
 
     private SSLServerSocket serverSocket;
     private InetAddress bindAddr;
@@ -22,10 +26,21 @@ public class ChatServer {
 
     private final Lock clientListLock = new ReentrantLock();
 
-    private Map<String, Room> rooms = new HashMap<>();
-    private final Lock roomLock = new ReentrantLock();
+    // Lock-free registry: lookups never block, creation and AI upgrade are atomic per room name
+    private final ConcurrentMap<String, Room> rooms = new ConcurrentHashMap<>();
 
-    private final Map<String, String> activeTokens = new ConcurrentHashMap<>();
+    // Login tokens; they outlive the connection for a grace period so clients can RECONNECT
+    private final SessionTable sessions = new SessionTable();
+
+    private final UserStore userStore = new UserStore(USERS_PATH);
+
+    private final ReconnectThrottle reconnectThrottle = new ReconnectThrottle();
+
+    // Closes connections that stop sending (no HEARTBEAT) without a timer per client
+    private final IdleTimerWheel idleWheel = new IdleTimerWheel();
+
+    // Room history; null when -Dchat.log.dir is set to an empty value
+    private final MessageStore messageStore = MESSAGE_LOG_DIR.isEmpty() ? null : new MessageStore(Path.of(MESSAGE_LOG_DIR));
 
     // SSL configuration properties
     private static final String KEYSTORE_PATH = "server/server.keystore";  // Path to your keystore file
@@ -33,8 +48,31 @@ public class ChatServer {
     private static final String KEY_MANAGER_ALGORITHM = KeyManagerFactory.getDefaultAlgorithm();
     private static final String SSL_PROTOCOL = "TLS";
 
+    // TLS session resumption: TLS 1.2 session-ID cache and TLS 1.3 tickets both honour these
+    private static final int SESSION_CACHE_SIZE = Integer.getInteger("chat.tls.sessionCacheSize", 20_000);
+    private static final int SESSION_TIMEOUT_SECONDS = Integer.getInteger("chat.tls.sessionTimeout", 24 * 60 * 60);
+
+    private static final String USERS_PATH = "users/users.txt";
+    // -Dchat.log.dir: where each room's message log is kept
+    private static final String MESSAGE_LOG_DIR = System.getProperty("chat.log.dir", "data/rooms");
+
+    // Transport modes selectable at startup
+    public static final String TRANSPORT_BLOCKING = "blocking";
+    public static final String TRANSPORT_NIO = "nio";
+    private static final int NIO_LOOPS = Integer.getInteger("chat.nio.loops", Runtime.getRuntime().availableProcessors());
+
     public ChatServer(int port, String bindAddress) throws UnknownHostException {
+        this(port, bindAddress, TRANSPORT_BLOCKING);
+    }
+
+    public ChatServer(int port, String bindAddress, String transport) throws UnknownHostException {
+        this(port, bindAddress, transport, AIRoom.defaultBackend());
+    }
+
+    public ChatServer(int port, String bindAddress, String transport, LlmBackend llmBackend) throws UnknownHostException {
         this.port = port;
+        this.transport = transport;
+        this.llmBackend = llmBackend;
         this.clients = new ArrayList<>();
         this.bindAddr = InetAddress.getByName(bindAddress);
 
@@ -47,6 +85,11 @@ public class ChatServer {
             // Set up the SSL context
             SSLContext sslContext = createSSLContext();
 
+            if (TRANSPORT_NIO.equals(transport)) {
+                new NioTransport(this, sslContext, new InetSocketAddress(bindAddr, port), NIO_LOOPS).start();
+                return;
+            }
+
             // Create an SSL server socket factory
             SSLServerSocketFactory sslServerSocketFactory = sslContext.getServerSocketFactory();
 
@@ -63,8 +106,8 @@ public class ChatServer {
                 SSLSocket socket = (SSLSocket) serverSocket.accept();
                 System.out.println("New client connected from " + socket.getInetAddress());
 
-                ClientHandler handler = new ClientHandler(socket, this);
-                handler.start();
+                SocketConnection connection = new SocketConnection(socket, this);
+                connection.start();
             }
 
         } catch (IOException | GeneralSecurityException e) {
@@ -88,6 +131,11 @@ public class ChatServer {
         SSLContext sslContext = SSLContext.getInstance(SSL_PROTOCOL);
         sslContext.init(keyManagerFactory.getKeyManagers(), null, null);
 
+        // Let reconnecting clients resume instead of paying for a full handshake
+        SSLSessionContext sessionContext = sslContext.getServerSessionContext();
+        sessionContext.setSessionCacheSize(SESSION_CACHE_SIZE);
+        sessionContext.setSessionTimeout(SESSION_TIMEOUT_SECONDS);
+
         return sslContext;
     }
 
@@ -100,6 +148,21 @@ public class ChatServer {
         }
     }
 
+    // Called by the transports for every new connection, from the moment it is accepted
+    public void trackIdle(ClientHandler handler) {
+        idleWheel.add(handler);
+    }
+
+    // Logged-in connections closed because their heartbeats stopped
+    public long getIdleEvictionCount() {
+        return idleWheel.getIdleEvictions();
+    }
+
+    // Connections closed because they went quiet before finishing login
+    public long getLoginTimeoutCount() {
+        return idleWheel.getLoginEvictions();
+    }
+
     public void addClient(ClientHandler handler) {
         clientListLock.lock();
         try {
@@ -110,68 +173,52 @@ public class ChatServer {
     }
 
     private void initializeDefaultRooms() {
-        roomLock.lock();
-        try {
-            rooms.put("parallel computation", new Room("parallel computation"));
-            rooms.put("distributed computation", new Room("distributed computation"));
-            rooms.put("AI", new AIRoom("AI", 
-                "You are an AI assistant helping users discuss artificial intelligence topics. " +
-                "Be knowledgeable but approachable in your responses."));
-        } finally {
-            roomLock.unlock();
-        }
+        rooms.put("parallel computation", new Room("parallel computation", logFor("parallel computation")));
+        rooms.put("distributed computation", new Room("distributed computation", logFor("distributed computation")));
+        rooms.put("AI", new AIRoom("AI", 
+            "You are an AI assistant helping users discuss artificial intelligence topics. " +
+            "Be knowledgeable but approachable in your responses.", null, llmBackend, logFor("AI")));
+    }
+
+    private MessageLog logFor(String roomName) {
+        return messageStore != null ? messageStore.forRoom(roomName) : null;
     }
 
-    // No ChatServer.java, substitui o método getOrCreateRoom existente por estes dois:
-    
     public Room getOrCreateRoom(String name) {
         return getOrCreateRoom(name, null);
     }
     
     public Room getOrCreateRoom(String name, String aiPrompt) {
-        roomLock.lock();
-        try {
-            Room existingRoom = rooms.get(name);
-            if (existingRoom != null) {
-                return existingRoom;
-            }
-            
+        // Fast path: existing rooms are a plain lock-free read
+        Room existingRoom = rooms.get(name);
+        if (existingRoom != null) {
+            return existingRoom;
+        }
+
+        return rooms.computeIfAbsent(name, roomName -> {
             // Se aiPrompt não for null, criar sala AI
             if (aiPrompt != null && !aiPrompt.trim().isEmpty()) {
-                Room newRoom = new AIRoom(name, aiPrompt);
-                rooms.put(name, newRoom);
-                return newRoom;
-            } else {
-                // Sala normal
-                Room newRoom = new Room(name);
-                rooms.put(name, newRoom);
-                return newRoom;
+                return new AIRoom(roomName, aiPrompt, null, llmBackend, logFor(roomName));
             }
-        } finally {
-            roomLock.unlock();
-        }
+            // Sala normal
+            return new Room(roomName, logFor(roomName));
+        });
     }
     
-    // Método para forçar criação de sala AI (substitui sala normal existente se estiver vazia)
+    // Método para forçar criação de sala AI (substitui sala normal existente se estiver vazia).
+    // The emptiness check and the swap run inside compute(), and the old room is retired so a
+    // join racing with the upgrade fails on it and re-resolves the name instead of joining an orphan.
     public Room forceCreateAiRoom(String name, String aiPrompt) {
-        roomLock.lock();
-        try {
-            Room existingRoom = rooms.get(name);
-            if (existingRoom != null && existingRoom.getClientCount() == 0 && !existingRoom.isAiRoom()) {
-                // Sala normal vazia, substituir por AI
-                rooms.remove(name);
+        return rooms.compute(name, (roomName, existingRoom) -> {
+            if (existingRoom == null) {
+                return new AIRoom(roomName, aiPrompt, null, llmBackend, logFor(roomName));
             }
-            
-            if (!rooms.containsKey(name)) {
-                Room newRoom = new AIRoom(name, aiPrompt);
-                rooms.put(name, newRoom);
-                return newRoom;
-            } else {
-                return rooms.get(name);
+            if (!existingRoom.isAiRoom() && existingRoom.retireIfEmpty()) {
+                // Sala normal vazia, substituir por AI
+                return new AIRoom(roomName, aiPrompt, null, llmBackend, logFor(roomName));
             }
-        } finally {
-            roomLock.unlock();
-        }
+            return existingRoom;
+        });
     }
 
     public List<ClientHandler> getClients(){
@@ -179,35 +226,49 @@ public class ChatServer {
     }
 
     public List<String> getRoomNames() {
-        roomLock.lock();
-        try {
-            return new ArrayList<>(rooms.keySet());
-        } finally {
-            roomLock.unlock();
-        }
+        return new ArrayList<>(rooms.keySet());
+    }
+
+    public LlmBackend getLlmBackend() {
+        return llmBackend;
+    }
+
+    public UserStore getUserStore() {
+        return userStore;
     }
 
     public boolean isUserLoggedIn(String username) {
-        return activeTokens.containsKey(username);
+        return sessions.isConnected(username);
+    }
+
+    // A new session owned by handler; null if the user is already connected elsewhere
+    public String createToken(String username, ClientHandler handler) {
+        return sessions.open(username, handler);
     }
 
-    public String createToken(String username) {
-        String token = UUID.randomUUID().toString();
-        activeTokens.put(username, token);
-        return token;
+    // 0 if a RECONNECT may be served now, otherwise the retry-after hint in milliseconds
+    public long admitReconnect() {
+        return reconnectThrottle.admit();
     }
 
-    public void removeToken(String username) {
-        activeTokens.remove(username);
+    // RECONNECT: moves the session to handler if the token is still valid
+    public boolean resumeSession(String username, String token, ClientHandler handler) {
+        return sessions.resume(username, token, handler);
     }
 
-    public boolean validateToken(String username, String token) {
-        return token.equals(activeTokens.get(username));
+    // The connection closed without logging out: the token stays valid for the grace period
+    public void detachSession(String username, ClientHandler handler) {
+        sessions.detach(username, handler);
+    }
+
+    public void endSession(String username, ClientHandler handler) {
+        sessions.end(username, handler);
     }
 
     public static void main(String[] args) {
         int port = 8443;
         String bindAddress = "localhost";
+        String transport = TRANSPORT_BLOCKING;
 
         if (args.length > 0) {
             try {
@@ -221,8 +282,16 @@ public class ChatServer {
             bindAddress = args[1];
         }
 
+        if (args.length > 2) {
+            if (args[2].equals(TRANSPORT_NIO) || args[2].equals(TRANSPORT_BLOCKING)) {
+                transport = args[2];
+            } else {
+                System.err.println("Unknown transport '" + args[2] + "'. Using blocking transport.");
+            }
+        }
+
         try {
-            ChatServer server = new ChatServer(port, bindAddress);
+            ChatServer server = new ChatServer(port, bindAddress, transport);
             server.start();
         } catch (UnknownHostException e) {
             System.err.println("Invalid bind address: " + bindAddress);
@@ -3,120 +3,164 @@ package server;
 import java.net.*;
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.RejectedExecutionException;
+import common.BinaryWire;
 import common.MessageType;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
-import java.nio.charset.StandardCharsets;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import org.json.JSONObject;
 import org.json.JSONException;
-import javax.net.ssl.SSLSocket;
 
 public class ClientHandler {
-    private SSLSocket socket;
+    private enum State { AWAITING_AUTH, AWAITING_READY, ACTIVE, CLOSED }
+
+    private final Connection connection;
     private ChatServer server;
-    private BufferedReader in;
-    private PrintWriter out;
     private Client client;
     private Room currentRoom;
-    private final Lock messageLock = new ReentrantLock();
 
-    public ClientHandler(SSLSocket socket, ChatServer server) {
-        this.socket = socket;
+    // Frames arrive one at a time from the transport, so the login handshake is a small state machine
+    private volatile State state = State.AWAITING_AUTH;
+    private String pendingUsername;
+    // Set by QUIT: the session ends with the connection instead of waiting out its grace period
+    private volatile boolean loggedOut = false;
+    // Arrival time of the last inbound frame; read by the server's IdleTimerWheel
+    private volatile long lastActivityNanos = System.nanoTime();
+
+    private final FrameDecoder frame = new FrameDecoder();
+
+    // -Dchat.wire.allowBinary=false: ignore requests for binary framing and always speak JSON
+    static final boolean ALLOW_BINARY_FRAMING = !"false".equalsIgnoreCase(System.getProperty("chat.wire.allowBinary", "true"));
+
+    public ClientHandler(Connection connection, ChatServer server) {
+        this.connection = connection;
         this.server = server;
     }
 
-    public void start() {
-        Thread.startVirtualThread(this::run);
+    // Called by the transport for every complete newline-delimited frame, in arrival order.
+    // Frames of one connection are never handled concurrently, so the decoder is reused.
+    public void handleFrame(String jsonMessageStr) {
+        if (state == State.CLOSED) {
+            return;
+        }
+        lastActivityNanos = System.nanoTime();
+        try {
+            frame.decode(jsonMessageStr);
+        } catch (JSONException e) {
+            handleMalformedFrame(e);
+            return;
+        }
+        dispatchFrame();
     }
 
-    public void run() {
+    // Same for a binary frame's payload (see common.BinaryWire); the bytes are only valid during the call
+    public void handleBinaryFrame(byte[] payload, int offset, int length) {
+        if (state == State.CLOSED) {
+            return;
+        }
+        lastActivityNanos = System.nanoTime();
         try {
-            socket.startHandshake();
+            frame.decode(payload, offset, length);
+        } catch (JSONException e) {
+            handleMalformedFrame(e);
+            return;
+        }
+        dispatchFrame();
+    }
 
-            in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-            out = new PrintWriter(socket.getOutputStream(), true);
+    private void dispatchFrame() {
+        switch (state) {
+            case AWAITING_AUTH -> handleInitialMessage();
+            case AWAITING_READY -> handleReadyConfirmation();
+            case ACTIVE -> handleMessage();
+            case CLOSED -> { }
+        }
+    }
 
-            String jsonStr = in.readLine();
-            try {
-                JSONObject json = new JSONObject(jsonStr);
-                String type = json.getString("type");
-
-                if (type.equals(MessageType.LOGIN_REQUEST.toString())) {
-                    handleLoginRequest(json);
-                } else if (type.equals(MessageType.REGISTER_REQUEST.toString())) {
-                    handleRegisterRequest(json);
-                } else if (type.equals(MessageType.RECONNECT.toString())) {
-                    handleReconnectRequest(json);
-                } else {
-                    sendErrorMessage("Invalid initial message type");
-                    closeConnection();
-                    return;
-                }
-            } catch (JSONException e) {
+    private void handleMalformedFrame(JSONException e) {
+        switch (state) {
+            case AWAITING_AUTH -> {
                 sendErrorMessage("Invalid JSON format");
                 closeConnection();
-                return;
             }
+            case AWAITING_READY -> closeConnection();
+            case ACTIVE -> sendErrorMessage("Invalid JSON format: " + e.getMessage());
+            case CLOSED -> { }
+        }
+    }
 
-            String jsonMessageStr;
-            while ((jsonMessageStr = in.readLine()) != null) {
-                try {
-                    JSONObject jsonMessage = new JSONObject(jsonMessageStr);
-                    String type = jsonMessage.getString("type");
+    // Called by the transport once, after the last frame has been handled
+    public void onDisconnect() {
+        cleanup();
+    }
 
-                    if (type.equals(MessageType.QUIT.toString())) {
-                        break;
-                    }
-                    else if (type.equals(MessageType.LIST_ROOMS.toString())) {
-                        sendRoomList();
-                    }
-                    else if (type.equals(MessageType.JOIN_ROOM.toString())) {
-                        String roomName = jsonMessage.getString("roomName");
-                        joinRoom(roomName);
-                    }
-                    else if (type.equals(MessageType.LEAVE_ROOM.toString())) {
-                        leaveRoom();
-                    }
-                    else if (type.equals(MessageType.LIST_CMDS.toString())) {
-                        sendListCmds();
-                    }
-                    else if (type.equals(MessageType.LIST_CUR_ROOM.toString())) {
-                        sendListCurrRoom();
+    private void handleInitialMessage() {
+        MessageType type = frame.getType();
+        if (type == MessageType.LOGIN_REQUEST) {
+            handleLoginRequest(frame);
+        } else if (type == MessageType.REGISTER_REQUEST) {
+            handleRegisterRequest(frame);
+        } else if (type == MessageType.RECONNECT) {
+            handleReconnectRequest(frame);
+        } else {
+            sendErrorMessage("Invalid initial message type");
+            closeConnection();
+        }
+    }
+
+    private void handleMessage() {
+        try {
+            MessageType type = frame.getType();
+            if (type == null) {
+                sendErrorMessage("Unknown message type: " + frame.getTypeName());
+                return;
+            }
+
+            switch (type) {
+                case QUIT -> {
+                    loggedOut = true;
+                    closeConnection();
+                }
+                case LIST_ROOMS -> sendRoomList();
+                case JOIN_ROOM -> joinRoom(frame.getString(FrameDecoder.Field.ROOM_NAME));
+                case LEAVE_ROOM -> leaveRoom();
+                case LIST_CMDS -> sendListCmds();
+                case LIST_CUR_ROOM -> sendListCurrRoom();
+                case SEND_MESSAGE -> {
+                    if (currentRoom == null) {
+                        sendErrorMessage("You must join a room first");
+                        return;
                     }
-                    else if (type.equals(MessageType.SEND_MESSAGE.toString())) {
-                        if (currentRoom == null) {
-                            sendErrorMessage("You must join a room first");
-                            continue;
-                        }
-                        String content = jsonMessage.getString("content");
-                        currentRoom.broadcastMessage(content, this);
+                    String content = frame.getString(FrameDecoder.Field.CONTENT);
+                    if (!currentRoom.fitsInMessage(client.getUsername(), content)) {
+                        sendErrorMessage("Message too long");
+                        return;
                     }
-                    else if (type.equals("HEARTBEAT")) {
-                        if(client != null) {
-                            sendHeartbeatAck();
-                        }
+                    currentRoom.broadcastMessage(content, this);
+                }
+                case HEARTBEAT -> {
+                    if (client != null) {
+                        sendHeartbeatAck();
                     }
-
-                    else {
-                        sendErrorMessage("Unknown message type: " + type);
+                }
+                case HISTORY_REQUEST -> {
+                    if (currentRoom == null) {
+                        sendErrorMessage("You must join a room first");
+                        return;
                     }
-                } catch (JSONException e) {
-                    sendErrorMessage("Invalid JSON format: " + e.getMessage());
+                    long beforeId = frame.optLong(FrameDecoder.Field.BEFORE_ID, 0);
+                    long limit = frame.optLong(FrameDecoder.Field.LIMIT, Room.REPLAY_MESSAGES);
+                    currentRoom.sendHistory(this, beforeId, (int) Math.max(1, Math.min(limit, Room.MAX_HISTORY_PAGE)));
                 }
+                default -> sendErrorMessage("Unknown message type: " + type);
             }
-        } catch (IOException e) {
-            System.err.println("Connection error with client: " + e.getMessage());
-        } finally {
-            cleanup();
+        } catch (JSONException e) {
+            sendErrorMessage("Invalid JSON format: " + e.getMessage());
         }
     }
 
-    private void handleLoginRequest(JSONObject json) throws IOException {
+    private void handleLoginRequest(FrameDecoder json) {
         try {
-            String username = json.getString("username");
-            String password = json.getString("password");
+            String username = json.getString(FrameDecoder.Field.USERNAME);
+            String password = json.getString(FrameDecoder.Field.PASSWORD);
 
             if (username == null || username.isEmpty()) {
                 sendLoginResponse(false, "Invalid username");
@@ -136,35 +180,40 @@ public class ClientHandler {
                 return;
             }
 
-            if (!authenticateUser(username, password)) {
-                sendLoginResponse(false, "Invalid credentials");
+            try {
+                if (!authenticateUser(username, password)) {
+                    sendLoginResponse(false, "Invalid credentials");
+                    closeConnection();
+                    return;
+                }
+            } catch (RejectedExecutionException e) {
+                sendLoginResponse(false, "Server busy, please try again later");
                 closeConnection();
                 return;
             }
 
-            String token = server.createToken(username);
-            sendLoginResponse(true, token);
-
-            // Wait for client confirmation
-            String confirmationStr = in.readLine();
-            JSONObject confirmation = new JSONObject(confirmationStr);
-            if (confirmation.getString("type").equals("READY")) {
-                this.client = new Client(username, socket.getInetAddress().getHostAddress());
-                server.addClient(this);
-                sendWelcomeMessage(username);
-            } else {
+            String token = server.createToken(username, this);
+            if (token == null) {
+                // connected from elsewhere while the password was being checked
+                sendLoginResponse(false, "User already logged in");
                 closeConnection();
+                return;
             }
+            sendLoginResponse(true, token, negotiateFraming());
+
+            // Wait for client confirmation
+            pendingUsername = username;
+            state = State.AWAITING_READY;
         } catch (JSONException e) {
             sendLoginResponse(false, "Invalid JSON format");
             closeConnection();
         }
     }
 
-    private void handleRegisterRequest(JSONObject json) throws IOException {
+    private void handleRegisterRequest(FrameDecoder json) {
         try {
-            String username = json.getString("username");
-            String password = json.getString("password");
+            String username = json.getString(FrameDecoder.Field.USERNAME);
+            String password = json.getString(FrameDecoder.Field.PASSWORD);
 
             if (username == null || username.isEmpty()) {
                 sendRegisterResponse(false, "Invalid username");
@@ -184,58 +233,97 @@ public class ClientHandler {
                 return;
             }
 
-            String token = server.createToken(username);
-            sendRegisterResponse(true, token);
+            // Only acknowledge once the registration is durable on disk
+            try {
+                if (!storeUser(username, password)) {
+                    sendRegisterResponse(false, "Username already exists");
+                    closeConnection();
+                    return;
+                }
+            } catch (IOException e) {
+                System.err.println("Error storing user: " + e.getMessage());
+                sendRegisterResponse(false, "Registration failed, please try again");
+                closeConnection();
+                return;
+            } catch (RejectedExecutionException e) {
+                sendRegisterResponse(false, "Server busy, please try again later");
+                closeConnection();
+                return;
+            }
 
-            // Wait for client confirmation
-            String confirmationStr = in.readLine();
-            JSONObject confirmation = new JSONObject(confirmationStr);
-            if (confirmation.getString("type").equals("READY")) {
-                storeUser(username, password);
-                this.client = new Client(username, socket.getInetAddress().getHostAddress());
-                server.addClient(this);
-                sendWelcomeMessage(username);
-            } else {
+            String token = server.createToken(username, this);
+            if (token == null) {
+                // the new account was logged in from elsewhere before this response
+                sendRegisterResponse(false, "User already logged in");
                 closeConnection();
+                return;
             }
+            sendRegisterResponse(true, token, negotiateFraming());
+
+            // Wait for client confirmation
+            pendingUsername = username;
+            state = State.AWAITING_READY;
         } catch (JSONException e) {
             sendRegisterResponse(false, "Invalid JSON format");
             closeConnection();
         }
     }
 
-    private void handleReconnectRequest(JSONObject json) {
+    private void handleReadyConfirmation() {
+        if (frame.getType() == MessageType.READY) {
+            this.client = new Client(pendingUsername, connection.getRemoteAddress());
+            state = State.ACTIVE;
+            server.addClient(this);
+            sendWelcomeMessage(pendingUsername);
+        } else {
+            closeConnection();
+        }
+    }
+
+    private void handleReconnectRequest(FrameDecoder json) {
 
         try {
-            String username = json.getString("username");
-            String token = json.getString("token");
-            String roomName = null;
-            if (json.has("roomName") && !json.isNull("roomName")) {
-                roomName = json.getString("roomName");
-            }
+            String username = json.getString(FrameDecoder.Field.USERNAME);
+            String token = json.getString(FrameDecoder.Field.TOKEN);
+            String roomName = json.optString(FrameDecoder.Field.ROOM_NAME);
 
+            // Reconnect storm: refuse before doing any work and tell the client when to return
+            long retryAfterMs = server.admitReconnect();
+            if (retryAfterMs > 0) {
+                JSONObject response = new JSONObject();
+                response.put("type", MessageType.RECONNECT_RESPONSE.toString());
+                response.put("success", false);
+                response.put("retryAfterMs", retryAfterMs);
+                sendJsonMessage(response.toString());
 
+                closeConnection();
+                return;
+            }
 
-            boolean isValidToken = server.validateToken(username,token);
+            boolean isValidToken = server.resumeSession(username, token, this);
 
             if (isValidToken) {
-                this.client = new Client(username, socket.getInetAddress().getHostAddress());
+                this.client = new Client(username, connection.getRemoteAddress());
+                state = State.ACTIVE;
                 server.addClient(this);
 
-                if (roomName != null && !roomName.isEmpty()) {
-                    joinRoom(roomName, true);
-                }
-
                 JSONObject response = new JSONObject();
-                response.put("type", "RECONNECT_RESPONSE");
+                response.put("type", MessageType.RECONNECT_RESPONSE.toString());
                 response.put("success", true);
+                response.put(BinaryWire.FRAMING_KEY, negotiateFraming());
                 sendJsonMessage(response.toString());
 
+                // Rejoined after the response, so replayed frames follow it. A client without
+                // sequence numbers always gets the resync path: the latest history
+                if (roomName != null && !roomName.isEmpty()) {
+                    resumeRoom(roomName, json.optLong(FrameDecoder.Field.EPOCH, 0), json.optLong(FrameDecoder.Field.LAST_SEQ, -1));
+                }
+
                 sendWelcomeMessage(username);
 
             } else {
                 JSONObject response = new JSONObject();
-                response.put("type", "RECONNECT_RESPONSE");
+                response.put("type", MessageType.RECONNECT_RESPONSE.toString());
                 response.put("success", false);
                 sendJsonMessage(response.toString());
 
@@ -244,7 +332,7 @@ public class ClientHandler {
 
         } catch (JSONException e) {
             JSONObject response = new JSONObject();
-            response.put("type", "RECONNECT_RESPONSE");
+            response.put("type", MessageType.RECONNECT_RESPONSE.toString());
             response.put("success", false);
             sendJsonMessage(response.toString());
 
@@ -252,34 +340,63 @@ public class ClientHandler {
         }
     }
 
+    // Honours "framing": "binary" in the auth request being handled. Called right before the
+    // successful response, which is then already written in the new framing.
+    private String negotiateFraming() {
+        String requested;
+        try {
+            requested = frame.optString(FrameDecoder.Field.FRAMING);
+        } catch (JSONException e) {
+            requested = null;
+        }
+        if (ALLOW_BINARY_FRAMING && BinaryWire.FRAMING_BINARY.equals(requested) && connection.enableBinaryFraming()) {
+            return BinaryWire.FRAMING_BINARY;
+        }
+        return BinaryWire.FRAMING_JSON;
+    }
+
     private void sendLoginResponse(boolean success, String message) {
+        sendLoginResponse(success, message, null);
+    }
+
+    private void sendLoginResponse(boolean success, String message, String framing) {
         JSONObject response = new JSONObject();
         response.put("type", MessageType.LOGIN_RESPONSE.toString());
         response.put("success", success);
         response.put("message", message);
+        if (framing != null) {
+            response.put(BinaryWire.FRAMING_KEY, framing);
+        }
 
         sendJsonMessage(response.toString());
     }
 
     private void sendRegisterResponse(boolean success, String message) {
+        sendRegisterResponse(success, message, null);
+    }
+
+    private void sendRegisterResponse(boolean success, String message, String framing) {
         JSONObject response = new JSONObject();
         response.put("type", MessageType.REGISTER_RESPONSE.toString());
         response.put("success", success);
         response.put("message", message);
+        if (framing != null) {
+            response.put(BinaryWire.FRAMING_KEY, framing);
+        }
 
         sendJsonMessage(response.toString());
     }
 
     private void sendWelcomeMessage(String username) {
         JSONObject welcome = new JSONObject();
-        welcome.put("type", "WELCOME");
+        welcome.put("type", MessageType.WELCOME.toString());
         welcome.put("message", "Welcome to the chat, " + username + "!");
 
         sendJsonMessage(welcome.toString());
     }
     private void sendHeartbeatAck() {
         JSONObject ack = new JSONObject();
-        ack.put("type", "HEARTBEAT_ACK");
+        ack.put("type", MessageType.HEARTBEAT_ACK.toString());
         sendJsonMessage(ack.toString());
     }
 
@@ -303,6 +420,7 @@ public class ClientHandler {
         response.put("/cmds", "List all commands available");
         response.put("/join <room name>", "Joins room if exists if not creates a new one");
         response.put("/join AI <topic>", "Creates or joins an AI-powered chat room");
+        response.put("/history", "Show older messages of the current room");
         sendJsonMessage(response.toString());
     }
 
@@ -317,6 +435,44 @@ public class ClientHandler {
             currentRoom.removeClient(this);
         }
 
+        Room newRoom = resolveRoom(roomName, silent);
+        while (!newRoom.addClient(this, !silent)) {
+            // The room was replaced (upgraded to an AI room) between lookup and join
+            newRoom = resolveRoom(roomName, true);
+        }
+        currentRoom = newRoom;
+
+        if (!silent) {
+            currentRoom.onJoinAcknowledged(this);
+        }
+    }
+
+    // Called by the room as part of the join; seq is the last sequenced frame this client does not get
+    void sendRoomJoined(Room room, long epoch, long seq) {
+        JSONObject response = new JSONObject();
+        response.put("type", MessageType.ROOM_JOINED.toString());
+        response.put("roomName", room.getName());
+        response.put("isAiRoom", room.isAiRoom());
+        response.put("epoch", epoch);
+        response.put("seq", seq);
+
+        sendJsonMessage(response.toString());
+    }
+
+    // Rejoins the room a reconnecting client was in and sends what it missed: the exact frames
+    // if the room still has them, otherwise RESYNC followed by the latest history
+    private void resumeRoom(String roomName, long epoch, long lastSeq) {
+        if (currentRoom != null) {
+            currentRoom.removeClient(this);
+        }
+        Room room = resolveRoom(roomName, true);
+        while (!room.resumeClient(this, epoch, lastSeq)) {
+            room = resolveRoom(roomName, true);
+        }
+        currentRoom = room;
+    }
+
+    private Room resolveRoom(String roomName, boolean silent) {
         Room newRoom;
         boolean isAiRoom = roomName.toLowerCase().startsWith("ai ") ||
                 roomName.toLowerCase().contains(" ai") ||
@@ -357,18 +513,7 @@ public class ClientHandler {
         } else {
             newRoom = server.getOrCreateRoom(roomName);
         }
-
-        currentRoom = newRoom;
-        currentRoom.addClient(this);
-
-        if (!silent) {
-            JSONObject response = new JSONObject();
-            response.put("type", MessageType.ROOM_JOINED.toString());
-            response.put("roomName", roomName);
-            response.put("isAiRoom", currentRoom.isAiRoom());
-
-            sendJsonMessage(response.toString());
-        }
+        return newRoom;
     }
 
     private void joinRoom(String roomName) {
@@ -425,15 +570,20 @@ public class ClientHandler {
     }
 
     public void sendJsonMessage(String jsonMessage) {
-        messageLock.lock();
-        try {
-            out.println(jsonMessage);
-        } finally {
-            messageLock.unlock();
-        }
+        connection.send(jsonMessage);
+    }
+
+    // Broadcast path: the frame is already encoded and shared between recipients. Only queues
+    // it (see Connection.send), so rooms call it under their sequence lock
+    public void sendFrame(OutboundFrame frame) {
+        connection.send(frame);
     }
 
     private void cleanup() {
+        if (state == State.CLOSED) {
+            return;
+        }
+        state = State.CLOSED;
         try {
             if (currentRoom != null) {
                 currentRoom.removeClient(this);
@@ -442,8 +592,13 @@ public class ClientHandler {
 
             server.removeClient(this);
 
-            if (client != null) {
-                server.removeToken(client.getUsername());
+            String username = client != null ? client.getUsername() : pendingUsername;
+            if (username != null) {
+                if (loggedOut) {
+                    server.endSession(username, this);
+                } else {
+                    server.detachSession(username, this);
+                }
             }
 
             closeConnection();
@@ -453,82 +608,40 @@ public class ClientHandler {
     }
 
     public void closeConnection() {
-        try {
-            if (socket != null && !socket.isClosed()) {
-                socket.close();
-            }
-        } catch (IOException e) {
-            System.err.println("Error closing connection: " + e.getMessage());
-        }
+        connection.close();
     }
 
-    private boolean authenticateUser(String username, String password) {
-        try (BufferedReader fileReader = new BufferedReader(new FileReader("users/users.txt"))) {
-            String hashedUsername = hashString(username);
-            String hashedPassword = hashString(password);
-            String line;
+    // Hard close, without waiting for queued frames to reach the client
+    void abortConnection() {
+        connection.abort();
+    }
 
-            while ((line = fileReader.readLine()) != null) {
-                String[] parts = line.split(":");
-                if (parts.length != 2) continue;
+    long getLastActivityNanos() {
+        return lastActivityNanos;
+    }
 
-                if (parts[0].equals(hashedUsername) && parts[1].equals(hashedPassword)) {
-                    return true;
-                }
-            }
-        } catch (IOException | NoSuchAlgorithmException e) {
-            e.printStackTrace();
-        }
-        return false;
+    boolean isClosed() {
+        return state == State.CLOSED;
     }
 
-    private String hashString(String input) throws NoSuchAlgorithmException {
-        MessageDigest digest = MessageDigest.getInstance("SHA-256");
-        byte[] hash = digest.digest(input.getBytes(StandardCharsets.UTF_8));
-        StringBuilder hexString = new StringBuilder();
-        for (byte b : hash) {
-            String hex = Integer.toHexString(0xff & b);
-            if (hex.length() == 1) hexString.append('0');
-            hexString.append(hex);
-        }
-        return hexString.toString();
+    private boolean authenticateUser(String username, String password) {
+        return server.getUserStore().authenticate(username, password);
     }
 
     private boolean checkUserExists(String username) {
-        try (BufferedReader fileReader = new BufferedReader(new FileReader("users/users.txt"))) {
-            String hashedUsername = hashString(username);
-            String line;
-
-            while ((line = fileReader.readLine()) != null) {
-                String[] parts = line.split(":");
-                if (parts.length != 2) continue;
-
-                if (parts[0].equals(hashedUsername)) {
-                    return true;
-                }
-            }
-        } catch (IOException | NoSuchAlgorithmException e) {
-            e.printStackTrace();
-        }
-        return false;
+        return server.getUserStore().exists(username);
     }
 
-    private void storeUser(String username, String password) {
-        try {
-            String hashedUsername = hashString(username);
-            String hashedPassword = hashString(password);
-            String userEntry = hashedUsername + ":" + hashedPassword;
-
-            try (BufferedWriter writer = new BufferedWriter(new FileWriter("users/users.txt", true))) {
-                writer.write(userEntry);
-                writer.newLine();
-            }
-        } catch (IOException | NoSuchAlgorithmException e) {
-            e.printStackTrace();
-        }
+    private boolean storeUser(String username, String password) throws IOException {
+        return server.getUserStore().register(username, password);
     }
 
     public Client getClient() {
         return client;
     }
+
+    // Outbound queue depth and drop counters for this client
+    public OutboundQueue getOutboundQueue() {
+        return connection.getOutboundQueue();
+    }
 }
\ No newline at end of file
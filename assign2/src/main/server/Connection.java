@@ -0,0 +1,38 @@
+package server;
+
+// Transport-neutral view of a client connection.
+// ClientHandler only talks to this, so the same dispatch logic runs on top of
+// the blocking SSLSocket transport and on the NIO/SSLEngine transport.
+public interface Connection {
+
+    // Queue one pre-encoded frame to the client.
+    // Never blocks and never does I/O, not even on overflow (handled by the connection's
+    // OutboundQueue policy; a disconnect closes the socket on another thread): callers may hold
+    // a room's sequence lock.
+    void send(OutboundFrame frame);
+
+    default void send(String jsonMessage) {
+        send(OutboundFrame.of(jsonMessage));
+    }
+
+    // Switch outbound frames to binary framing (see common.BinaryWire), starting with the next
+    // frame written. Returns false if this transport only speaks JSON. Inbound framing is
+    // detected per frame, so nothing changes on that side.
+    default boolean enableBinaryFraming() {
+        return false;
+    }
+
+    // Close the connection; the handler gets onDisconnect() once pending inbound frames are processed
+    void close();
+
+    // Close at once, dropping whatever is still queued: for peers that are gone, where a graceful
+    // close could wait forever on a full send buffer. onDisconnect() follows as with close()
+    default void abort() {
+        close();
+    }
+
+    String getRemoteAddress();
+
+    // Per-client queue depth and drop counters
+    OutboundQueue getOutboundQueue();
+}
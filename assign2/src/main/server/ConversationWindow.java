@@ -0,0 +1,216 @@
+package server;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+// The part of an AIRoom conversation that is sent to the model: the system line, an optional
+// summary of older turns, and the most recent turns that fit in a token budget.
+//
+// Turns live in a ring buffer (ArrayDeque) and their rendered text is kept in one StringBuilder
+// that only ever grows at the end; evicting the oldest turn just advances a start offset, and the
+// dead prefix is compacted away once it is more than half of the buffer. Rendering the prompt is
+// therefore a single copy, not a rebuild of every turn under the lock.
+//
+// Tokens are estimated as characters / 4, which is close enough for English and Portuguese chat
+// to keep prompts well inside the model's context without pulling in a tokenizer.
+public class ConversationWindow {
+    // Once this share of the budget has been evicted since the last summary, a new one is due
+    private static final int SUMMARY_TRIGGER_DIVISOR = 4;
+
+    private record Turn(int chars, int tokens) {
+    }
+
+    private final String systemLine;
+    private final int tokenBudget;
+
+    private final Lock lock = new ReentrantLock();
+    private final ArrayDeque<Turn> turns = new ArrayDeque<>();
+    private final StringBuilder text = new StringBuilder();
+    private int start = 0;        // offset of the oldest live turn in text
+    private int windowTokens = 0;
+    private String summary = null;
+
+    // Turns that left the window and are not covered by the summary yet; only kept when
+    // summarising is enabled, otherwise they are simply dropped. Bounded by the budget: if
+    // summaries cannot keep up (slow or failing), the oldest of these are dropped too.
+    private final boolean keepEvicted;
+    private final ArrayDeque<String> evicted = new ArrayDeque<>();
+    private int evictedTokens = 0;
+    private boolean summaryInProgress = false;
+
+    // Turns the model has not seen yet, for callers that continue a model-side conversation
+    // (see AIRoom) and only send what is new. Bounded by the budget like the window itself.
+    private final ArrayDeque<String> unsent = new ArrayDeque<>();
+    private int unsentTokens = 0;
+
+    public ConversationWindow(String systemLine, int tokenBudget, boolean keepEvicted) {
+        this.systemLine = systemLine;
+        this.tokenBudget = Math.max(1, tokenBudget);
+        this.keepEvicted = keepEvicted;
+    }
+
+    public static int estimateTokens(String s) {
+        return (s.length() + 3) / 4;
+    }
+
+    public void append(String line) {
+        appendTurn(line, false);
+    }
+
+    // For turns the model already has, i.e. its own answers
+    public void appendSent(String line) {
+        appendTurn(line, true);
+    }
+
+    private void appendTurn(String line, boolean sent) {
+        // a single turn never takes more than the whole budget
+        int maxChars = tokenBudget * 4;
+        if (line.length() > maxChars) {
+            line = line.substring(0, maxChars);
+        }
+        int tokens = estimateTokens(line);
+
+        lock.lock();
+        try {
+            text.append(line).append('\n');
+            turns.addLast(new Turn(line.length() + 1, tokens));
+            windowTokens += tokens;
+            if (!sent) {
+                unsent.addLast(line);
+                unsentTokens += tokens;
+                while (unsentTokens > tokenBudget && unsent.size() > 1) {
+                    unsentTokens -= estimateTokens(unsent.pollFirst());
+                }
+            }
+
+            while (windowTokens > tokenBudget && turns.size() > 1) {
+                Turn oldest = turns.pollFirst();
+                if (keepEvicted) {
+                    evicted.addLast(text.substring(start, start + oldest.chars() - 1));
+                    evictedTokens += oldest.tokens();
+                    while (evictedTokens > tokenBudget && evicted.size() > 1) {
+                        evictedTokens -= estimateTokens(evicted.pollFirst());
+                    }
+                }
+                start += oldest.chars();
+                windowTokens -= oldest.tokens();
+            }
+            if (start > text.length() / 2) {
+                text.delete(0, start);
+                start = 0;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // System line, summary (if any) and the live turns, one per line
+    public String render() {
+        lock.lock();
+        try {
+            return renderLocked();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // render() for a model-side conversation that starts now: everything rendered counts as sent
+    public String renderForNewSession() {
+        lock.lock();
+        try {
+            unsent.clear();
+            unsentTokens = 0;
+            return renderLocked();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // The turns appended (with append) since the last call or renderForNewSession, one per line
+    public String takeNewTurns() {
+        lock.lock();
+        try {
+            StringBuilder lines = new StringBuilder();
+            for (String line : unsent) {
+                lines.append(line).append('\n');
+            }
+            unsent.clear();
+            unsentTokens = 0;
+            return lines.toString();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private String renderLocked() {
+        StringBuilder prompt = new StringBuilder(systemLine.length() + text.length() - start + 64);
+        prompt.append(systemLine).append('\n');
+        if (summary != null) {
+            prompt.append("Resumo da conversa anterior: ").append(summary).append('\n');
+        }
+        prompt.append(text, start, text.length());
+        return prompt.toString();
+    }
+
+    // Returns the turns to fold into a new summary once enough have been evicted, or null if no
+    // summary is due (or one is already being produced). The caller must finish with
+    // completeSummary, passing null if it failed.
+    public List<String> beginSummary() {
+        lock.lock();
+        try {
+            if (!keepEvicted || summaryInProgress || evictedTokens < tokenBudget / SUMMARY_TRIGGER_DIVISOR) {
+                return null;
+            }
+            summaryInProgress = true;
+            List<String> batch = new ArrayList<>(evicted);
+            evicted.clear();
+            evictedTokens = 0;
+            return batch;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void completeSummary(String newSummary) {
+        lock.lock();
+        try {
+            summaryInProgress = false;
+            if (newSummary != null && !newSummary.isBlank()) {
+                int maxChars = tokenBudget / SUMMARY_TRIGGER_DIVISOR * 4;
+                summary = newSummary.length() > maxChars ? newSummary.substring(0, maxChars) : newSummary;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public String getSummary() {
+        lock.lock();
+        try {
+            return summary;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getTurnCount() {
+        lock.lock();
+        try {
+            return turns.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getWindowTokens() {
+        lock.lock();
+        try {
+            return windowTokens;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package server;
+
+import org.json.JSONArray;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+// In-process LlmBackend that "generates" canned words on a virtual thread: it waits
+// firstTokenMs, then emits replyTokens words at tokensPerSecond. No sockets and no JSON on the
+// model side, so a load test against AI rooms measures only the chat server's own overhead.
+// Shares its knobs with LlmStandInServer:
+//   -Dchat.llm.firstTokenMs (default 200) / -Dchat.llm.tokensPerSec (30) / -Dchat.llm.replyTokens (40)
+public class FakeLlmBackend implements LlmBackend {
+    static final long DEFAULT_FIRST_TOKEN_MS = Long.getLong("chat.llm.firstTokenMs", 200);
+    static final double DEFAULT_TOKENS_PER_SECOND = Double.parseDouble(System.getProperty("chat.llm.tokensPerSec", "30"));
+    static final int DEFAULT_REPLY_TOKENS = Integer.getInteger("chat.llm.replyTokens", 40);
+
+    private final long firstTokenMs;
+    private final long nanosPerToken;
+    private final int replyTokens;
+
+    public FakeLlmBackend() {
+        this(DEFAULT_FIRST_TOKEN_MS, DEFAULT_TOKENS_PER_SECOND, DEFAULT_REPLY_TOKENS);
+    }
+
+    public FakeLlmBackend(long firstTokenMs, double tokensPerSecond, int replyTokens) {
+        this.firstTokenMs = firstTokenMs;
+        this.nanosPerToken = tokensPerSecond > 0 ? (long) (1e9 / tokensPerSecond) : 0;
+        this.replyTokens = Math.max(1, replyTokens);
+    }
+
+    @Override
+    public CompletableFuture<Generation> generate(String prompt, JSONArray context, String model, Consumer<String> onChunk) {
+        CompletableFuture<Generation> result = new CompletableFuture<>();
+        Thread.startVirtualThread(() -> {
+            try {
+                int turn = context != null && context.length() > 0 ? context.getInt(0) + 1 : 0;
+                result.complete(new Generation(produce(onChunk), new JSONArray().put(turn)));
+            } catch (InterruptedException e) {
+                result.complete(new Generation("", null, true));
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+
+    @Override
+    public CompletableFuture<String> generateOrFail(String prompt, String model) {
+        CompletableFuture<String> result = new CompletableFuture<>();
+        Thread.startVirtualThread(() -> {
+            try {
+                // templates keep the placeholder so WelcomeCache can personalise them
+                String text = produce(chunk -> { });
+                result.complete(prompt.contains(WelcomeCache.PLACEHOLDER) ? WelcomeCache.PLACEHOLDER + ", " + text : text);
+            } catch (InterruptedException e) {
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return true;
+    }
+
+    private String produce(Consumer<String> onChunk) throws InterruptedException {
+        Thread.sleep(firstTokenMs);
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < replyTokens; i++) {
+            if (i > 0 && nanosPerToken > 0) {
+                Thread.sleep(nanosPerToken / 1_000_000, (int) (nanosPerToken % 1_000_000));
+            }
+            String token = "palavra" + i + " ";
+            text.append(token);
+            onChunk.accept(token);
+        }
+        return text.toString().trim();
+    }
+}
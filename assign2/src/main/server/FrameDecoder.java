@@ -0,0 +1,393 @@
+package server;
+
+import common.BinaryWire;
+import common.MessageType;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Arrays;
+
+// Decodes one inbound frame (a flat JSON object, or a binary frame, see common.BinaryWire) in a
+// single pass, without building a JSONObject. Only "type" and the fields in Field are kept, every other value is
+// skipped; the type is resolved straight to a MessageType by comparing it against the enum's
+// names in place. A decoder is reused for every frame of a connection (frames are handled one
+// at a time), so the only allocations per frame are the field values that are kept.
+// Malformed input throws JSONException, like org.json would.
+public final class FrameDecoder {
+
+    // Fields the server reads from client frames
+    public enum Field {
+        USERNAME("username"),
+        PASSWORD("password"),
+        TOKEN("token"),
+        ROOM_NAME("roomName"),
+        CONTENT("content"),
+        FRAMING(BinaryWire.FRAMING_KEY),
+        BEFORE_ID("beforeId"),
+        LIMIT("limit"),
+        EPOCH("epoch"),
+        LAST_SEQ("lastSeq");
+
+        private final String key;
+
+        Field(String key) {
+            this.key = key;
+        }
+
+        public String key() {
+            return key;
+        }
+    }
+
+    private static final Field[] FIELDS = Field.values();
+    private static final String TYPE_KEY = "type";
+    // MessageTypes indexed by name length, so a lookup compares only same-length names
+    private static final MessageType[][] TYPES_BY_LENGTH = typesByLength();
+
+    private final String[] values = new String[FIELDS.length];
+    private final boolean[] quoted = new boolean[FIELDS.length];
+    private final StringBuilder scratch = new StringBuilder();
+    private final BinaryWire.Decoder binary = new BinaryWire.Decoder(); // holds this connection's intern table
+    private MessageType type;
+    private String unknownType;
+
+    private String frame;
+    private int pos;
+    private boolean stringHadEscape; // set by scanString
+
+    // Decodes frame, replacing whatever the previous call decoded. Returns the frame's type, or
+    // null if it names a type this server does not know (see getTypeName).
+    public MessageType decode(String frame) throws JSONException {
+        Arrays.fill(values, null);
+        type = null;
+        unknownType = null;
+        this.frame = frame;
+        this.pos = 0;
+        boolean sawType = false;
+        try {
+            skipWhitespace();
+            expect('{');
+            skipWhitespace();
+            if (peek() == '}') {
+                pos++;
+            } else {
+                while (true) {
+                    skipWhitespace();
+                    expect('"');
+                    int keyStart = pos;
+                    int keyEnd = scanString();
+                    skipWhitespace();
+                    expect(':');
+                    skipWhitespace();
+
+                    if (keyMatches(keyStart, keyEnd, TYPE_KEY)) {
+                        expect('"');
+                        int valueStart = pos;
+                        int valueEnd = scanString();
+                        resolveType(valueStart, valueEnd);
+                        sawType = true;
+                    } else {
+                        int field = fieldIndex(keyStart, keyEnd);
+                        if (field >= 0) {
+                            readValue(field);
+                        } else {
+                            skipValue();
+                        }
+                    }
+
+                    skipWhitespace();
+                    char c = next();
+                    if (c == '}') {
+                        break;
+                    }
+                    if (c != ',') {
+                        throw syntaxError("Expected a ',' or '}'");
+                    }
+                }
+            }
+            skipWhitespace();
+            if (pos != frame.length()) {
+                throw syntaxError("Unexpected text after the frame");
+            }
+        } finally {
+            this.frame = null;
+        }
+        if (!sawType) {
+            throw new JSONException("JSONObject[\"type\"] not found.");
+        }
+        return type;
+    }
+
+    // Decodes a binary frame's payload; same contract as decode(String)
+    public MessageType decode(byte[] payload, int offset, int length) throws JSONException {
+        Arrays.fill(values, null);
+        unknownType = null;
+        type = binary.begin(payload, offset, length);
+        boolean sawType = type != null;
+        while (binary.hasNextField()) {
+            String key = binary.nextKey();
+            Object value = binary.nextValue();
+            if (key.equals(TYPE_KEY)) {
+                unknownType = String.valueOf(value);
+                sawType = true;
+                continue;
+            }
+            for (Field field : FIELDS) {
+                if (field.key.equals(key)) {
+                    int index = field.ordinal();
+                    values[index] = value == JSONObject.NULL ? null : value.toString();
+                    quoted[index] = value instanceof String;
+                    break;
+                }
+            }
+        }
+        if (!sawType) {
+            throw new JSONException("JSONObject[\"type\"] not found.");
+        }
+        return type;
+    }
+
+    public MessageType getType() {
+        return type;
+    }
+
+    // The type as sent, for error messages about unknown types
+    public String getTypeName() {
+        return type != null ? type.name() : unknownType;
+    }
+
+    public boolean has(Field field) {
+        return values[field.ordinal()] != null;
+    }
+
+    // The field's string value; throws like JSONObject.getString if it is missing, null or
+    // not a string
+    public String getString(Field field) throws JSONException {
+        String value = values[field.ordinal()];
+        if (value == null) {
+            throw new JSONException("JSONObject[\"" + field.key() + "\"] not found.");
+        }
+        if (!quoted[field.ordinal()]) {
+            throw new JSONException("JSONObject[\"" + field.key() + "\"] is not a string.");
+        }
+        return value;
+    }
+
+    // Like getString, but null when the field is missing or null
+    public String optString(Field field) throws JSONException {
+        return has(field) ? getString(field) : null;
+    }
+
+    // The field's integer value, or defaultValue when the field is missing or null
+    public long optLong(Field field, long defaultValue) throws JSONException {
+        String value = values[field.ordinal()];
+        if (value == null) {
+            return defaultValue;
+        }
+        if (!quoted[field.ordinal()]) {
+            try {
+                return Long.parseLong(value);
+            } catch (NumberFormatException e) {
+                // fall through
+            }
+        }
+        throw new JSONException("JSONObject[\"" + field.key() + "\"] is not a long.");
+    }
+
+    private void resolveType(int start, int end) {
+        if (stringHadEscape) {
+            // escaped type names never match an enum name; keep the text for the error
+            unknownType = unescape(start, end);
+            return;
+        }
+        int length = end - start;
+        if (length < TYPES_BY_LENGTH.length) {
+            for (MessageType candidate : TYPES_BY_LENGTH[length]) {
+                if (frame.regionMatches(start, candidate.name(), 0, length)) {
+                    type = candidate;
+                    return;
+                }
+            }
+        }
+        unknownType = frame.substring(start, end);
+    }
+
+    private boolean keyMatches(int start, int end, String key) {
+        return end - start == key.length() && frame.regionMatches(start, key, 0, key.length());
+    }
+
+    private int fieldIndex(int start, int end) {
+        for (Field field : FIELDS) {
+            if (keyMatches(start, end, field.key)) {
+                return field.ordinal();
+            }
+        }
+        return -1;
+    }
+
+    private void readValue(int field) {
+        char c = peek();
+        if (c == '"') {
+            pos++;
+            int start = pos;
+            int end = scanString();
+            values[field] = unescape(start, end);
+            quoted[field] = true;
+        } else {
+            int start = pos;
+            skipValue();
+            String literal = frame.substring(start, pos).trim();
+            values[field] = literal.equals("null") ? null : literal;
+            quoted[field] = false;
+        }
+    }
+
+    // Advances past a string whose opening quote was consumed; returns the index of its
+    // closing quote
+    private int scanString() {
+        stringHadEscape = false;
+        while (pos < frame.length()) {
+            char c = frame.charAt(pos++);
+            if (c == '"') {
+                return pos - 1;
+            }
+            if (c == '\\') {
+                stringHadEscape = true;
+                pos++;
+            } else if (c < 0x20) {
+                throw syntaxError("Unterminated string");
+            }
+        }
+        throw syntaxError("Unterminated string");
+    }
+
+    // Text of the string just scanned by scanString
+    private String unescape(int start, int end) {
+        if (!stringHadEscape) {
+            return frame.substring(start, end);
+        }
+        int backslash = frame.indexOf('\\', start);
+        scratch.setLength(0);
+        scratch.append(frame, start, backslash);
+        for (int i = backslash; i < end; i++) {
+            char c = frame.charAt(i);
+            if (c != '\\') {
+                scratch.append(c);
+                continue;
+            }
+            char escaped = frame.charAt(++i);
+            switch (escaped) {
+                case 'b' -> scratch.append('\b');
+                case 'f' -> scratch.append('\f');
+                case 'n' -> scratch.append('\n');
+                case 'r' -> scratch.append('\r');
+                case 't' -> scratch.append('\t');
+                case 'u' -> {
+                    if (i + 4 >= end) {
+                        throw syntaxError("Illegal escape");
+                    }
+                    // exactly four ASCII hex digits: parseInt would also take a sign (and
+                    // Character.digit alone other scripts' digits)
+                    int code = 0;
+                    for (int k = i + 1; k <= i + 4; k++) {
+                        char h = frame.charAt(k);
+                        int digit = h < 0x80 ? Character.digit(h, 16) : -1;
+                        if (digit < 0) {
+                            throw syntaxError("Illegal escape");
+                        }
+                        code = code << 4 | digit;
+                    }
+                    scratch.append((char) code);
+                    i += 4;
+                }
+                case '"', '\\', '/' -> scratch.append(escaped);
+                default -> throw syntaxError("Illegal escape");
+            }
+        }
+        String value = scratch.toString();
+        scratch.setLength(0);
+        return value;
+    }
+
+    // Skips one value of any kind, including nested objects and arrays
+    private void skipValue() {
+        int start = pos;
+        int depth = 0;
+        while (pos < frame.length()) {
+            char c = frame.charAt(pos);
+            if (c == '"') {
+                pos++;
+                scanString();
+                if (depth == 0) {
+                    return;
+                }
+                continue;
+            }
+            if (c == '{' || c == '[') {
+                depth++;
+            } else if (c == '}' || c == ']') {
+                if (depth == 0) {
+                    break;
+                }
+                depth--;
+                if (depth == 0) {
+                    pos++;
+                    return;
+                }
+            } else if (c == ',' && depth == 0) {
+                break;
+            }
+            pos++;
+        }
+        if (depth > 0) {
+            throw syntaxError("Unterminated value");
+        }
+        if (pos == start) {
+            throw syntaxError("Missing value");
+        }
+    }
+
+    private void skipWhitespace() {
+        while (pos < frame.length() && Character.isWhitespace(frame.charAt(pos))) {
+            pos++;
+        }
+    }
+
+    private char peek() {
+        if (pos >= frame.length()) {
+            throw syntaxError("Unexpected end of frame");
+        }
+        return frame.charAt(pos);
+    }
+
+    private char next() {
+        char c = peek();
+        pos++;
+        return c;
+    }
+
+    private void expect(char expected) {
+        if (next() != expected) {
+            throw syntaxError("Expected '" + expected + "'");
+        }
+    }
+
+    private JSONException syntaxError(String message) {
+        return new JSONException(message + " at character " + pos);
+    }
+
+    private static MessageType[][] typesByLength() {
+        int maxLength = 0;
+        for (MessageType t : MessageType.values()) {
+            maxLength = Math.max(maxLength, t.name().length());
+        }
+        MessageType[][] byLength = new MessageType[maxLength + 1][];
+        for (int length = 0; length <= maxLength; length++) {
+            int len = length;
+            byLength[length] = Arrays.stream(MessageType.values())
+                    .filter(t -> t.name().length() == len)
+                    .toArray(MessageType[]::new);
+        }
+        return byLength;
+    }
+}
@@ -0,0 +1,142 @@
+package server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Closes connections that have sent nothing for TIMEOUT_MS. Logged-in clients send a HEARTBEAT
+// every 10 s, so this catches half-open connections (and logins abandoned half way) that would
+// otherwise keep their thread or selector key, their room membership and their session forever.
+// A hashed timer wheel: one slot per TICK_MS, enough slots to cover the timeout, one thread that
+// advances a slot per tick. Inbound frames only write the handler's last-activity time; the wheel
+// looks at a handler when its slot comes up and either closes it or moves it to the slot of its
+// new deadline. Each tick only touches the handlers due in that slot, so the cost is O(1) per
+// connection per timeout, not a scan of every connection, and there is no timer per client.
+// Closed handlers are dropped when their slot comes up.
+final class IdleTimerWheel {
+    // -Dchat.idle.timeoutMs / -Dchat.idle.tickMs
+    static final long TIMEOUT_MS = Long.getLong("chat.idle.timeoutMs", 30_000);
+    static final long TICK_MS = Long.getLong("chat.idle.tickMs", 500);
+
+    private final long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MS);
+    private final long tickNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, TICK_MS));
+    private final long startNanos = System.nanoTime();
+
+    // A deadline is never more than the timeout plus one tick ahead, so the wheel never wraps
+    private final List<ClientHandler>[] slots;
+    private final Lock lock = new ReentrantLock();
+    private long currentTick = 0; // slots up to this one have been processed; guarded by lock
+
+    private final AtomicLong idleEvictions = new AtomicLong();
+    private final AtomicLong loginEvictions = new AtomicLong();
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    IdleTimerWheel() {
+        slots = new List[(int) ((timeoutNanos + tickNanos - 1) / tickNanos) + 2];
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = new ArrayList<>();
+        }
+        Thread ticker = new Thread(this::tickLoop, "idle-timer-wheel");
+        ticker.setDaemon(true);
+        ticker.start();
+    }
+
+    void add(ClientHandler handler) {
+        lock.lock();
+        try {
+            schedule(handler, handler.getLastActivityNanos() + timeoutNanos);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Called with lock held
+    private void schedule(ClientHandler handler, long deadlineNanos) {
+        long tick = Math.max(currentTick + 1, (deadlineNanos - startNanos + tickNanos - 1) / tickNanos);
+        slots[(int) (tick % slots.length)].add(handler);
+    }
+
+    private void tickLoop() {
+        while (true) {
+            long tick;
+            lock.lock();
+            try {
+                tick = currentTick + 1;
+            } finally {
+                lock.unlock();
+            }
+            long wait = startNanos + tick * tickNanos - System.nanoTime();
+            if (wait > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+            advance(tick);
+        }
+    }
+
+    private void advance(long tick) {
+        List<ClientHandler> due;
+        lock.lock();
+        try {
+            currentTick = tick;
+            int slot = (int) (tick % slots.length);
+            due = slots[slot];
+            slots[slot] = new ArrayList<>();
+        } finally {
+            lock.unlock();
+        }
+        if (due.isEmpty()) {
+            return;
+        }
+
+        long now = System.nanoTime();
+        List<ClientHandler> idle = new ArrayList<>();
+        lock.lock();
+        try {
+            for (ClientHandler handler : due) {
+                if (handler.isClosed()) {
+                    continue;
+                }
+                long deadline = handler.getLastActivityNanos() + timeoutNanos;
+                if (deadline - now <= 0) {
+                    idle.add(handler);
+                } else {
+                    schedule(handler, deadline);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        // Closed outside the lock: the transport may run the handler's cleanup inline. A hard
+        // close, since a graceful one can wait forever on a peer that stopped reading
+        for (ClientHandler handler : idle) {
+            if (handler.getClient() != null) {
+                idleEvictions.incrementAndGet();
+            } else {
+                loginEvictions.incrementAndGet();
+            }
+            handler.abortConnection();
+        }
+        if (!idle.isEmpty()) {
+            System.out.println("Closed " + idle.size() + " idle connection(s)");
+        }
+    }
+
+    // Logged-in connections closed for missing heartbeats
+    long getIdleEvictions() {
+        return idleEvictions.get();
+    }
+
+    // Connections closed before finishing login
+    long getLoginEvictions() {
+        return loginEvictions.get();
+    }
+}
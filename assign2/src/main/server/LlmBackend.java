@@ -0,0 +1,50 @@
+package server;
+
+import org.json.JSONArray;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+// The language model behind AIRooms. Selected at startup with -Dchat.llm.backend:
+//   ollama  (default) OllamaClient at -Dchat.ollama.url, else $OLLAMA_URL, else localhost:11434
+//   standin an LlmStandInServer started in-process, reached over HTTP through OllamaClient
+//   fake    FakeLlmBackend, no HTTP at all
+// The last two produce canned text at a configurable latency and token rate, so AI rooms can be
+// load tested without a model; see LlmStandInServer and FakeLlmBackend for the knobs.
+public interface LlmBackend {
+
+    // A finished generation. context is backend-defined conversation state; passing it to the
+    // next generate call continues the conversation without resending its text. Null if the
+    // backend does not support that or the generation failed. failed: text is the fallback
+    // reply, not something the model said, so it is shown but kept out of history.
+    record Generation(String text, JSONArray context, boolean failed) {
+        public Generation(String text, JSONArray context) {
+            this(text, context, false);
+        }
+    }
+
+    // Streams the answer to onChunk as it is produced. Never completes exceptionally: failures
+    // are logged and complete with a user-facing fallback reply and a null context.
+    CompletableFuture<Generation> generate(String prompt, JSONArray context, String model, Consumer<String> onChunk);
+
+    // For internal prompts (summaries, templates): fails exceptionally instead of returning
+    // the fallback reply
+    CompletableFuture<String> generateOrFail(String prompt, String model);
+
+    // Cached state, cheap enough to check before every generation
+    boolean isAvailable();
+
+    static LlmBackend fromConfig() {
+        String backend = System.getProperty("chat.llm.backend", "ollama");
+        switch (backend.toLowerCase()) {
+            case "fake":
+                return new FakeLlmBackend();
+            case "standin":
+                return new OllamaClient(LlmStandInServer.startLocal().getUrl());
+            case "ollama":
+                return new OllamaClient(OllamaClient.configuredUrl());
+            default:
+                throw new IllegalArgumentException("Unknown LLM backend: " + backend);
+        }
+    }
+}
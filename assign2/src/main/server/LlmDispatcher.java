@@ -0,0 +1,179 @@
+package server;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+// Server-wide gate in front of the LLM. There is a single local Ollama behind every AIRoom, and
+// it gets slower for everyone once it has more than a couple of generations to juggle, so at
+// most maxInFlight calls run at a time and the rest wait here.
+//
+// Waiting calls are queued per room and served round-robin across rooms, so one busy room only
+// ever holds one turn in the rotation and cannot starve the others. A call that has not started
+// within the queue deadline is shed: its future fails with RejectedExecutionException and it is
+// counted in getShedCount(), since an answer that arrives that late is no longer useful.
+public class LlmDispatcher {
+    // -Dchat.llm.maxInFlight / -Dchat.llm.queueDeadlineMs
+    static final int DEFAULT_MAX_IN_FLIGHT = Integer.getInteger("chat.llm.maxInFlight", 2);
+    static final long DEFAULT_QUEUE_DEADLINE_MS = Long.getLong("chat.llm.queueDeadlineMs", 30_000);
+
+    private static final LlmDispatcher SHARED = new LlmDispatcher(DEFAULT_MAX_IN_FLIGHT, DEFAULT_QUEUE_DEADLINE_MS);
+
+    private final int maxInFlight;
+    private final long queueDeadlineMs;
+
+    private final Lock lock = new ReentrantLock();
+    private final Map<String, ArrayDeque<Call<?>>> waitingByRoom = new HashMap<>();
+    private final ArrayDeque<String> roomTurns = new ArrayDeque<>(); // rooms with waiting calls, in serving order
+    private int inFlight = 0;
+    private int queued = 0;
+
+    private final AtomicLong completedCount = new AtomicLong();
+    private final AtomicLong shedCount = new AtomicLong();
+
+    private static final class Call<T> {
+        final String room;
+        final Supplier<CompletableFuture<T>> request;
+        final CompletableFuture<T> result = new CompletableFuture<>();
+
+        Call(String room, Supplier<CompletableFuture<T>> request) {
+            this.room = room;
+            this.request = request;
+        }
+    }
+
+    public LlmDispatcher(int maxInFlight, long queueDeadlineMs) {
+        this.maxInFlight = Math.max(1, maxInFlight);
+        this.queueDeadlineMs = queueDeadlineMs;
+    }
+
+    public static LlmDispatcher shared() {
+        return SHARED;
+    }
+
+    // Runs request now if a slot is free, otherwise queues it behind the room's earlier calls.
+    // The returned future completes with the request's result, or fails with
+    // RejectedExecutionException if the call was shed before it could start.
+    public <T> CompletableFuture<T> submit(String room, Supplier<CompletableFuture<T>> request) {
+        Call<T> call = new Call<>(room, request);
+        lock.lock();
+        try {
+            if (inFlight < maxInFlight) {
+                inFlight++;
+            } else {
+                ArrayDeque<Call<?>> waiting = waitingByRoom.computeIfAbsent(room, r -> new ArrayDeque<>());
+                if (waiting.isEmpty()) {
+                    roomTurns.addLast(room);
+                }
+                waiting.addLast(call);
+                queued++;
+                CompletableFuture.delayedExecutor(queueDeadlineMs, TimeUnit.MILLISECONDS)
+                        .execute(() -> shedIfWaiting(call));
+                return call.result;
+            }
+        } finally {
+            lock.unlock();
+        }
+        start(call);
+        return call.result;
+    }
+
+    private <T> void start(Call<T> call) {
+        CompletableFuture<T> running;
+        try {
+            running = call.request.get();
+        } catch (RuntimeException e) {
+            running = CompletableFuture.failedFuture(e);
+        }
+        running.whenComplete((value, error) -> {
+            completedCount.incrementAndGet();
+            releaseSlot();
+            if (error != null) {
+                call.result.completeExceptionally(error);
+            } else {
+                call.result.complete(value);
+            }
+        });
+    }
+
+    // Hands the freed slot to the next room in the rotation, if anything is waiting
+    private void releaseSlot() {
+        Call<?> next;
+        lock.lock();
+        try {
+            String room = roomTurns.pollFirst();
+            if (room == null) {
+                inFlight--;
+                return;
+            }
+            ArrayDeque<Call<?>> waiting = waitingByRoom.get(room);
+            next = waiting.pollFirst();
+            queued--;
+            if (waiting.isEmpty()) {
+                waitingByRoom.remove(room);
+            } else {
+                roomTurns.addLast(room);
+            }
+        } finally {
+            lock.unlock();
+        }
+        start(next);
+    }
+
+    private void shedIfWaiting(Call<?> call) {
+        lock.lock();
+        try {
+            ArrayDeque<Call<?>> waiting = waitingByRoom.get(call.room);
+            if (waiting == null || !waiting.remove(call)) {
+                return; // already started
+            }
+            queued--;
+            if (waiting.isEmpty()) {
+                waitingByRoom.remove(call.room);
+                roomTurns.remove(call.room);
+            }
+        } finally {
+            lock.unlock();
+        }
+        shedCount.incrementAndGet();
+        call.result.completeExceptionally(new RejectedExecutionException(
+                "LLM call for room '" + call.room + "' waited more than " + queueDeadlineMs + "ms"));
+    }
+
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getQueuedCount() {
+        lock.lock();
+        try {
+            return queued;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getCompletedCount() {
+        return completedCount.get();
+    }
+
+    public long getShedCount() {
+        return shedCount.get();
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+}
@@ -0,0 +1,129 @@
+package server;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+
+// Minimal Ollama-compatible HTTP server producing canned answers at a configurable latency and
+// token rate. It implements the parts of the API the chat server uses: GET /api/tags, and
+// streaming POST /api/generate (including a context array) and /api/chat.
+//
+// Run it on its own and point the chat server at it with -Dchat.ollama.url / OLLAMA_URL:
+//   java -cp .:lib/json-20231013.jar server.LlmStandInServer <port>
+// or let -Dchat.llm.backend=standin start one in-process on a free port.
+// Knobs (shared with FakeLlmBackend): -Dchat.llm.firstTokenMs, -Dchat.llm.tokensPerSec, -Dchat.llm.replyTokens
+public class LlmStandInServer {
+    private final HttpServer http;
+    private final long firstTokenMs;
+    private final long nanosPerToken;
+    private final int replyTokens;
+
+    public LlmStandInServer(int port, long firstTokenMs, double tokensPerSecond, int replyTokens) throws IOException {
+        this.firstTokenMs = firstTokenMs;
+        this.nanosPerToken = tokensPerSecond > 0 ? (long) (1e9 / tokensPerSecond) : 0;
+        this.replyTokens = Math.max(1, replyTokens);
+        this.http = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+        http.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        http.createContext("/api/tags", this::handleTags);
+        http.createContext("/api/generate", exchange -> handleGeneration(exchange, false));
+        http.createContext("/api/chat", exchange -> handleGeneration(exchange, true));
+    }
+
+    // Starts a stand-in with the configured knobs on a free local port
+    public static LlmStandInServer startLocal() {
+        try {
+            LlmStandInServer standIn = new LlmStandInServer(0, FakeLlmBackend.DEFAULT_FIRST_TOKEN_MS,
+                    FakeLlmBackend.DEFAULT_TOKENS_PER_SECOND, FakeLlmBackend.DEFAULT_REPLY_TOKENS);
+            standIn.start();
+            return standIn;
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not start LLM stand-in: " + e.getMessage(), e);
+        }
+    }
+
+    public void start() {
+        http.start();
+        System.out.println("LLM stand-in listening on " + getUrl());
+    }
+
+    public void stop() {
+        http.stop(0);
+    }
+
+    public String getUrl() {
+        return "http://127.0.0.1:" + http.getAddress().getPort();
+    }
+
+    private void handleTags(HttpExchange exchange) throws IOException {
+        exchange.getRequestBody().readAllBytes();
+        byte[] body = "{\"models\":[{\"name\":\"stand-in\"}]}".getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private void handleGeneration(HttpExchange exchange, boolean chat) throws IOException {
+        JSONObject request;
+        try {
+            request = new JSONObject(new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8));
+        } catch (RuntimeException e) {
+            exchange.sendResponseHeaders(400, -1);
+            exchange.close();
+            return;
+        }
+        JSONArray context = request.optJSONArray("context");
+        int turn = context != null && context.length() > 0 ? context.optInt(0) + 1 : 0;
+        boolean template = request.optString("prompt", "").contains(WelcomeCache.PLACEHOLDER);
+
+        exchange.getResponseHeaders().set("Content-Type", "application/x-ndjson");
+        exchange.sendResponseHeaders(200, 0);
+        try (OutputStream out = exchange.getResponseBody()) {
+            sleepNanos(firstTokenMs * 1_000_000);
+            for (int i = 0; i < replyTokens; i++) {
+                if (i > 0) {
+                    sleepNanos(nanosPerToken);
+                }
+                String token = (i == 0 && template ? WelcomeCache.PLACEHOLDER + ", " : "") + "palavra" + i + " ";
+                JSONObject chunk = new JSONObject().put("done", false);
+                if (chat) {
+                    chunk.put("message", new JSONObject().put("role", "assistant").put("content", token));
+                } else {
+                    chunk.put("response", token);
+                }
+                out.write((chunk + "\n").getBytes(StandardCharsets.UTF_8));
+                out.flush();
+            }
+            JSONObject last = new JSONObject().put("done", true);
+            if (!chat) {
+                last.put("response", "").put("context", new JSONArray().put(turn));
+            }
+            out.write((last + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static void sleepNanos(long nanos) {
+        if (nanos <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(nanos / 1_000_000, (int) (nanos % 1_000_000));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 11434;
+        new LlmStandInServer(port, FakeLlmBackend.DEFAULT_FIRST_TOKEN_MS,
+                FakeLlmBackend.DEFAULT_TOKENS_PER_SECOND, FakeLlmBackend.DEFAULT_REPLY_TOKENS).start();
+    }
+}
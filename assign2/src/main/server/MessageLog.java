@@ -0,0 +1,481 @@
+package server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+// Append-only message log of one room, stored as segments in the room's directory:
+//   <baseId>.log  records [bodyLength:u32][crc32:u32][id:u64][timestampMs:u64][senderLength:u16][sender][content]
+//   <baseId>.idx  one u32 file offset per record, so message id N is entry N - baseId
+// Ids are dense and start at 1. append() only queues the message in memory; MessageStore's
+// flusher writes and fsyncs queued messages in batches, which is also the only time a segment
+// rolls over (by size or age). The most recent messages are kept in memory as well, so replay
+// on join never touches the disk; older pages are read through the index.
+public final class MessageLog {
+    // -Dchat.log.segmentBytes / -Dchat.log.segmentMs: roll over to a new segment past either
+    static final long SEGMENT_BYTES = Long.getLong("chat.log.segmentBytes", 16L << 20);
+    static final long SEGMENT_MS = Long.getLong("chat.log.segmentMs", 60 * 60 * 1000);
+    // -Dchat.log.recent: messages kept in memory per room
+    static final int RECENT_CAPACITY = Integer.getInteger("chat.log.recent", 256);
+
+    private static final int HEADER_LENGTH = 8;
+    private static final int FIXED_BODY_LENGTH = 18;
+
+    public record Entry(long id, long timestampMillis, String sender, String content) {
+    }
+
+    private static final class Segment {
+        final long baseId;
+        final Path logPath;
+        final Path idxPath;
+        long size;
+        int count;
+        long openedMillis;
+        FileChannel log; // only the active segment keeps its channels open
+        FileChannel idx;
+
+        Segment(Path dir, long baseId) {
+            this.baseId = baseId;
+            this.logPath = dir.resolve(String.format("%020d.log", baseId));
+            this.idxPath = dir.resolve(String.format("%020d.idx", baseId));
+        }
+    }
+
+    private final Path dir;
+    private final MessageStore store; // flushes this log; null when the owner calls flush itself
+
+    // nextId, the in-memory tail and the queue of unwritten messages
+    private final Lock lock = new ReentrantLock();
+    private long nextId;
+    private final ArrayDeque<Entry> recent = new ArrayDeque<>();
+    private List<Entry> unwritten = new ArrayList<>();
+
+    // segments and their files; held by flushes and disk reads
+    private final Lock ioLock = new ReentrantLock();
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+    private Segment active;
+    private boolean unforced;
+
+    final AtomicBoolean dirty = new AtomicBoolean(); // queued with the store's flusher
+
+    // Recovers the log in dir (which need not exist yet); nothing is created until the first flush
+    MessageLog(Path dir, MessageStore store) throws IOException {
+        this.dir = dir;
+        this.store = store;
+        recover();
+        this.nextId = segments.isEmpty() ? 1 : segments.lastEntry().getValue().baseId + segments.lastEntry().getValue().count;
+        if (nextId > 1) {
+            recent.addAll(readRange(Math.max(1, nextId - RECENT_CAPACITY), nextId));
+        }
+    }
+
+    // Assigns the message its id; the message is durable after the next flush
+    public long append(String sender, String content, long timestampMillis) {
+        long id;
+        lock.lock();
+        try {
+            id = nextId++;
+            Entry entry = new Entry(id, timestampMillis, sender, content);
+            unwritten.add(entry);
+            if (recent.size() == RECENT_CAPACITY) {
+                recent.pollFirst();
+            }
+            recent.addLast(entry);
+        } finally {
+            lock.unlock();
+        }
+        if (store != null && dirty.compareAndSet(false, true)) {
+            store.markDirty(this);
+        }
+        return id;
+    }
+
+    // Last id handed out, 0 if the room never had a message
+    public long getLastId() {
+        lock.lock();
+        try {
+            return nextId - 1;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // The newest messages, oldest first
+    public List<Entry> latest(int limit) {
+        return before(Long.MAX_VALUE, limit);
+    }
+
+    // Up to limit messages with ids below beforeId, oldest first. Served from memory when the
+    // range is recent, otherwise from the index and one read per segment touched.
+    public List<Entry> before(long beforeId, int limit) {
+        long to;
+        long from;
+        lock.lock();
+        try {
+            to = Math.min(beforeId, nextId);
+            from = Math.max(1, to - Math.max(0, limit));
+            if (from >= to) {
+                return List.of();
+            }
+            if (!recent.isEmpty() && recent.peekFirst().id() <= from) {
+                List<Entry> page = new ArrayList<>((int) (to - from));
+                for (Entry entry : recent) {
+                    if (entry.id() >= to) {
+                        break;
+                    }
+                    if (entry.id() >= from) {
+                        page.add(entry);
+                    }
+                }
+                return page;
+            }
+        } finally {
+            lock.unlock();
+        }
+        try {
+            flush(false);
+            return readRange(from, to);
+        } catch (IOException e) {
+            System.err.println("Error reading message log " + dir + ": " + e.getMessage());
+            return List.of();
+        }
+    }
+
+    // Writes queued messages to the active segment, rolling it over first if needed. With
+    // force, also fsyncs whatever has been written since the last forced flush.
+    void flush(boolean force) throws IOException {
+        ioLock.lock();
+        try {
+            List<Entry> batch;
+            lock.lock();
+            try {
+                batch = unwritten;
+                unwritten = new ArrayList<>();
+            } finally {
+                lock.unlock();
+            }
+            if (!batch.isEmpty()) {
+                write(batch);
+                unforced = true;
+            }
+            if (force && unforced && active != null) {
+                active.log.force(false);
+                active.idx.force(false);
+                unforced = false;
+            }
+        } finally {
+            ioLock.unlock();
+        }
+    }
+
+    void close() throws IOException {
+        ioLock.lock();
+        try {
+            flush(true);
+            if (active != null) {
+                closeChannels(active);
+                active = null;
+            }
+        } finally {
+            ioLock.unlock();
+        }
+    }
+
+    // ioLock held
+    private void write(List<Entry> batch) throws IOException {
+        ByteBuffer records = ByteBuffer.allocate(256);
+        ByteBuffer offsets = ByteBuffer.allocate(batch.size() * 4);
+        for (Entry entry : batch) {
+            byte[] sender = entry.sender().getBytes(StandardCharsets.UTF_8);
+            byte[] content = entry.content().getBytes(StandardCharsets.UTF_8);
+            int recordLength = HEADER_LENGTH + FIXED_BODY_LENGTH + sender.length + content.length;
+
+            if (active == null || needsRollover(active, records.position(), recordLength)) {
+                writeOut(records, offsets);
+                roll(entry.id());
+            }
+            if (records.remaining() < recordLength) {
+                ByteBuffer grown = ByteBuffer.allocate(Math.max(records.capacity() * 2, records.position() + recordLength));
+                records.flip();
+                grown.put(records);
+                records = grown;
+            }
+            offsets.putInt((int) (active.size + records.position()));
+            int recordStart = records.position();
+            records.putInt(recordLength - HEADER_LENGTH);
+            records.putInt(0); // crc, patched below
+            records.putLong(entry.id());
+            records.putLong(entry.timestampMillis());
+            records.putShort((short) sender.length);
+            records.put(sender);
+            records.put(content);
+            CRC32 crc = new CRC32();
+            crc.update(records.array(), recordStart + HEADER_LENGTH, recordLength - HEADER_LENGTH);
+            records.putInt(recordStart + 4, (int) crc.getValue());
+        }
+        writeOut(records, offsets);
+    }
+
+    // A segment always takes at least one record, however large
+    private boolean needsRollover(Segment segment, int bufferedBytes, int recordLength) {
+        if (segment.count == 0 && bufferedBytes == 0) {
+            return false;
+        }
+        return segment.size + bufferedBytes + recordLength > SEGMENT_BYTES
+                || System.currentTimeMillis() - segment.openedMillis >= SEGMENT_MS;
+    }
+
+    // Appends the encoded records and their index entries to the active segment, data first
+    private void writeOut(ByteBuffer records, ByteBuffer offsets) throws IOException {
+        if (records.position() == 0) {
+            return;
+        }
+        records.flip();
+        offsets.flip();
+        long written = records.remaining();
+        int entries = offsets.remaining() / 4;
+        while (records.hasRemaining()) {
+            active.log.write(records);
+        }
+        while (offsets.hasRemaining()) {
+            active.idx.write(offsets);
+        }
+        active.size += written;
+        active.count += entries;
+        records.clear();
+        offsets.clear();
+    }
+
+    private void roll(long baseId) throws IOException {
+        if (active != null) {
+            active.log.force(false);
+            active.idx.force(false);
+            closeChannels(active);
+        }
+        Files.createDirectories(dir);
+        Segment segment = new Segment(dir, baseId);
+        openChannels(segment);
+        segment.openedMillis = System.currentTimeMillis();
+        segments.put(baseId, segment);
+        active = segment;
+    }
+
+    // Entries with from <= id < to, all of them already written
+    private List<Entry> readRange(long from, long to) throws IOException {
+        List<Entry> entries = new ArrayList<>((int) Math.min(to - from, 1024));
+        ioLock.lock();
+        try {
+            Map.Entry<Long, Segment> floor = segments.floorEntry(from);
+            long baseId = floor != null ? floor.getKey() : segments.isEmpty() ? Long.MAX_VALUE : segments.firstKey();
+            for (Segment segment : segments.tailMap(baseId, true).values()) {
+                if (segment.baseId >= to) {
+                    break;
+                }
+                long first = Math.max(from, segment.baseId);
+                long end = Math.min(to, segment.baseId + segment.count);
+                if (first < end) {
+                    readSegment(segment, first, end, entries);
+                }
+            }
+        } finally {
+            ioLock.unlock();
+        }
+        return entries;
+    }
+
+    // Two index lookups for the byte range, then one read of just those records
+    private void readSegment(Segment segment, long first, long end, List<Entry> out) throws IOException {
+        boolean opened = segment.log == null;
+        FileChannel log = opened ? FileChannel.open(segment.logPath, StandardOpenOption.READ) : segment.log;
+        FileChannel idx = opened ? FileChannel.open(segment.idxPath, StandardOpenOption.READ) : segment.idx;
+        try {
+            long startOffset = readOffset(idx, first - segment.baseId);
+            long endOffset = end - segment.baseId < segment.count ? readOffset(idx, end - segment.baseId) : segment.size;
+            ByteBuffer data = ByteBuffer.allocate((int) (endOffset - startOffset));
+            while (data.hasRemaining()) {
+                if (log.read(data, startOffset + data.position()) < 0) {
+                    throw new IOException("Segment " + segment.logPath + " is shorter than its index");
+                }
+            }
+            data.flip();
+            while (data.hasRemaining()) {
+                Entry entry = decode(data);
+                if (entry == null) {
+                    throw new IOException("Corrupt record in " + segment.logPath);
+                }
+                out.add(entry);
+            }
+        } finally {
+            if (opened) {
+                log.close();
+                idx.close();
+            }
+        }
+    }
+
+    private static long readOffset(FileChannel idx, long entry) throws IOException {
+        ByteBuffer offset = ByteBuffer.allocate(4);
+        while (offset.hasRemaining()) {
+            if (idx.read(offset, entry * 4 + offset.position()) < 0) {
+                throw new IOException("Index entry " + entry + " missing");
+            }
+        }
+        return offset.getInt(0) & 0xFFFFFFFFL;
+    }
+
+    // Decodes the record at the buffer's position, or returns null (position unchanged) if it
+    // is incomplete or fails its checksum
+    private static Entry decode(ByteBuffer data) {
+        int start = data.position();
+        if (data.remaining() < HEADER_LENGTH) {
+            return null;
+        }
+        int bodyLength = data.getInt(start);
+        int crc = data.getInt(start + 4);
+        if (bodyLength < FIXED_BODY_LENGTH || bodyLength > data.remaining() - HEADER_LENGTH) {
+            return null;
+        }
+        CRC32 check = new CRC32();
+        check.update(data.array(), data.arrayOffset() + start + HEADER_LENGTH, bodyLength);
+        if ((int) check.getValue() != crc) {
+            return null;
+        }
+        int body = start + HEADER_LENGTH;
+        long id = data.getLong(body);
+        long timestamp = data.getLong(body + 8);
+        int senderLength = data.getShort(body + 16) & 0xFFFF;
+        if (FIXED_BODY_LENGTH + senderLength > bodyLength) {
+            return null;
+        }
+        int senderStart = data.arrayOffset() + body + FIXED_BODY_LENGTH;
+        String sender = new String(data.array(), senderStart, senderLength, StandardCharsets.UTF_8);
+        String content = new String(data.array(), senderStart + senderLength,
+                bodyLength - FIXED_BODY_LENGTH - senderLength, StandardCharsets.UTF_8);
+        data.position(start + HEADER_LENGTH + bodyLength);
+        return new Entry(id, timestamp, sender, content);
+    }
+
+    // Loads the segment list. Only the last segment can have a torn tail (records without
+    // index entries, or a half-written record); it is checked and repaired.
+    private void recover() throws IOException {
+        if (!Files.isDirectory(dir)) {
+            return;
+        }
+        List<Long> baseIds = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*.log")) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    baseIds.add(Long.parseLong(name.substring(0, name.length() - 4)));
+                } catch (NumberFormatException e) {
+                    // not a segment
+                }
+            }
+        }
+        Collections.sort(baseIds);
+        for (long baseId : baseIds) {
+            Segment segment = new Segment(dir, baseId);
+            segment.size = Files.size(segment.logPath);
+            segment.count = Files.exists(segment.idxPath) ? (int) (Files.size(segment.idxPath) / 4) : 0;
+            segments.put(baseId, segment);
+        }
+        if (!segments.isEmpty()) {
+            repairTail(segments.lastEntry().getValue());
+        }
+    }
+
+    private void repairTail(Segment segment) throws IOException {
+        openChannels(segment);
+        try {
+            // Keep index entries that point at valid, correctly numbered records
+            int count = 0;
+            long resumeAt = 0;
+            if (segment.count > 0) {
+                ByteBuffer index = ByteBuffer.allocate(segment.count * 4);
+                while (index.hasRemaining() && segment.idx.read(index, index.position()) >= 0) {
+                }
+                index.flip();
+                long previous = -1;
+                while (index.remaining() >= 4) {
+                    long offset = index.getInt() & 0xFFFFFFFFL;
+                    if (offset <= previous || offset >= segment.size) {
+                        break;
+                    }
+                    previous = offset;
+                    count++;
+                }
+                resumeAt = count > 0 ? previous : 0;
+                count = Math.max(0, count - 1); // the last indexed record is re-validated below
+            }
+
+            // Scan forward from there, re-indexing records the index missed
+            ByteBuffer tail = ByteBuffer.allocate((int) (segment.size - resumeAt));
+            while (tail.hasRemaining() && segment.log.read(tail, resumeAt + tail.position()) >= 0) {
+            }
+            tail.flip();
+            ByteBuffer offsets = ByteBuffer.allocate(4 * (tail.remaining() / (HEADER_LENGTH + FIXED_BODY_LENGTH) + 1));
+            Entry entry;
+            while ((entry = decode(tail.duplicate().position(tail.position()))) != null
+                    && entry.id() == segment.baseId + count) {
+                offsets.putInt((int) (resumeAt + tail.position()));
+                decode(tail);
+                count++;
+            }
+            long validSize = resumeAt + tail.position();
+            if (validSize < segment.size) {
+                System.err.println("Message log " + segment.logPath + ": dropping " + (segment.size - validSize) + " torn bytes");
+            }
+            segment.log.truncate(validSize);
+            segment.idx.truncate(4L * (count - offsets.position() / 4));
+            offsets.flip();
+            segment.idx.position(segment.idx.size());
+            while (offsets.hasRemaining()) {
+                segment.idx.write(offsets);
+            }
+            segment.log.position(validSize);
+            segment.size = validSize;
+            segment.count = count;
+            segment.log.force(false);
+            segment.idx.force(false);
+        } finally {
+            closeChannels(segment);
+        }
+
+        // New messages go to this segment; its age counts from now
+        openChannels(segment);
+        segment.log.position(segment.size);
+        segment.idx.position(4L * segment.count);
+        segment.openedMillis = System.currentTimeMillis();
+        active = segment;
+    }
+
+    private static void openChannels(Segment segment) throws IOException {
+        segment.log = FileChannel.open(segment.logPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        segment.idx = FileChannel.open(segment.idxPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    private static void closeChannels(Segment segment) throws IOException {
+        try {
+            segment.log.close();
+            segment.idx.close();
+        } finally {
+            segment.log = null;
+            segment.idx = null;
+        }
+    }
+}
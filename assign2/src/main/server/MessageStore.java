@@ -0,0 +1,93 @@
+package server;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+
+// The message logs of every room, one directory each under root, and the thread that makes them
+// durable: every FLUSH_INTERVAL_MS it writes out and fsyncs the logs that received messages since
+// the previous round, so a busy room pays for one fsync per interval rather than one per message.
+// A crash loses at most the last interval; recovery drops any half-written tail.
+public final class MessageStore {
+    // -Dchat.log.flushMs: how often appended messages are written and forced to disk
+    static final long FLUSH_INTERVAL_MS = Long.getLong("chat.log.flushMs", 200);
+
+    private final Path root;
+    private final ConcurrentMap<String, MessageLog> logs = new ConcurrentHashMap<>();
+    private final Queue<MessageLog> dirtyLogs = new ConcurrentLinkedQueue<>();
+
+    public MessageStore(Path root) {
+        this.root = root;
+        Thread flusher = new Thread(this::flushLoop, "message-log-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::flush, "message-log-shutdown"));
+    }
+
+    // The room's log, recovered from disk on first use; null if it cannot be opened, in which
+    // case the room simply keeps no history
+    public MessageLog forRoom(String roomName) {
+        try {
+            return logs.computeIfAbsent(roomName, name -> {
+                try {
+                    return new MessageLog(root.resolve("room-" + URLEncoder.encode(name, StandardCharsets.UTF_8)), this);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            System.err.println("Error opening message log of room '" + roomName + "': " + e.getCause().getMessage());
+            return null;
+        }
+    }
+
+    // Flushes and closes every log; for tools that reopen the directory afterwards
+    public void close() {
+        flush();
+        for (MessageLog log : logs.values()) {
+            try {
+                log.close();
+            } catch (IOException e) {
+                System.err.println("Error closing message log: " + e.getMessage());
+            }
+        }
+        logs.clear();
+    }
+
+    // Called by a log on its first append since it was last flushed
+    void markDirty(MessageLog log) {
+        dirtyLogs.add(log);
+    }
+
+    private void flushLoop() {
+        while (true) {
+            try {
+                Thread.sleep(FLUSH_INTERVAL_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            flush();
+        }
+    }
+
+    // Writes out and fsyncs everything appended so far
+    public void flush() {
+        MessageLog log;
+        while ((log = dirtyLogs.poll()) != null) {
+            // cleared first: a message appended during the flush queues the log again
+            log.dirty.set(false);
+            try {
+                log.flush(true);
+            } catch (IOException e) {
+                System.err.println("Error writing message log: " + e.getMessage());
+            }
+        }
+    }
+}
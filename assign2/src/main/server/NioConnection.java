@@ -0,0 +1,446 @@
+package server;
+
+import common.BinaryWire;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+
+// One SSLEngine-backed client connection owned by an NioTransport.IoLoop.
+// TLS and socket work happens on the loop thread; decoded frames are handed to the
+// ClientHandler on a virtual thread that only exists while frames are pending.
+class NioConnection implements Connection {
+    private static final int MAX_FRAME_LENGTH = BinaryWire.MAX_FRAME_LENGTH;
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+    private static final String CLOSED_MARKER = new String("<closed>"); // compared by identity
+
+    private final SocketChannel channel;
+    private final SSLEngine engine;
+    private final NioTransport.IoLoop loop;
+    private final ClientHandler handler;
+    private final String remoteAddress;
+    private SelectionKey key;
+
+    // Private TLS buffers exist only while this connection holds a partial inbound record or
+    // unflushed outbound records; otherwise the loop's shared buffers are used. Fill mode between calls.
+    private ByteBuffer netIn;
+    private ByteBuffer netOut;
+
+    // Bytes of the frame currently being decoded: a JSON line up to the next '\n', or a binary
+    // frame (first byte 0), whose 4-byte header is collected before binaryRemaining is known
+    private byte[] lineBuffer = new byte[256];
+    private int lineLength;
+    private boolean inBinaryFrame;
+    private int binaryRemaining = -1; // payload bytes still to come, -1 while reading the header
+
+    private final OutboundQueue outbound = new OutboundQueue();
+    private ByteBuffer writing; // frame currently being wrapped, loop thread only
+    private volatile BinaryWire.Encoder binaryEncoder; // used on the loop thread only
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private boolean closeRequested; // loop thread only
+    private volatile boolean closed;
+
+    // JSON frames as String, binary payloads as byte[]
+    private final Queue<Object> inbox = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean draining = new AtomicBoolean();
+
+    NioConnection(SocketChannel channel, SSLEngine engine, NioTransport.IoLoop loop, ChatServer server) {
+        this.channel = channel;
+        this.engine = engine;
+        this.loop = loop;
+        this.remoteAddress = channel.socket().getInetAddress().getHostAddress();
+        this.handler = new ClientHandler(this, server);
+        server.trackIdle(handler);
+    }
+
+    // Loop thread
+    void register() {
+        try {
+            key = channel.register(loop.selector, SelectionKey.OP_READ, this);
+            engine.beginHandshake();
+        } catch (IOException e) {
+            closeNow();
+        }
+    }
+
+    // Loop thread
+    void onReadable() {
+        try {
+            ByteBuffer in = netIn != null ? netIn : loop.netIn;
+            int n = channel.read(in);
+            if (n < 0) {
+                closeNow();
+                return;
+            }
+            processInbound(in);
+        } catch (IOException e) {
+            closeNow();
+            return;
+        }
+        flush();
+    }
+
+    // Loop thread
+    void onWritable() {
+        flush();
+    }
+
+    private void processInbound(ByteBuffer netIn) throws IOException {
+        netIn.flip();
+        try {
+            loop:
+            while (!closed) {
+                HandshakeStatus hs = engine.getHandshakeStatus();
+                if (hs == HandshakeStatus.NEED_TASK) {
+                    runDelegatedTasks();
+                    continue;
+                }
+                if (hs == HandshakeStatus.NEED_WRAP) {
+                    if (!wrap(EMPTY)) break;
+                    continue;
+                }
+                if (!netIn.hasRemaining()) break;
+
+                SSLEngineResult result = engine.unwrap(netIn, loop.appIn);
+                if (loop.appIn.position() > 0) {
+                    deliverAppData(loop.appIn);
+                }
+                switch (result.getStatus()) {
+                    case BUFFER_UNDERFLOW:
+                        break loop;
+                    case BUFFER_OVERFLOW:
+                        loop.appIn = grow(loop.appIn, engine.getSession().getApplicationBufferSize());
+                        break;
+                    case CLOSED:
+                        closeNow();
+                        break loop;
+                    case OK:
+                        if (result.bytesConsumed() == 0 && result.bytesProduced() == 0
+                                && engine.getHandshakeStatus() != HandshakeStatus.NEED_TASK
+                                && engine.getHandshakeStatus() != HandshakeStatus.NEED_WRAP) {
+                            break loop;
+                        }
+                        break;
+                }
+            }
+        } finally {
+            netIn.compact();
+        }
+
+        // Keep a partial record privately so the shared read buffer is free for the next connection
+        if (closed || netIn.position() == 0) {
+            if (netIn == loop.netIn) {
+                netIn.clear();
+            }
+            this.netIn = null;
+        } else if (netIn == loop.netIn) {
+            this.netIn = copyOf(netIn, netIn.capacity());
+            netIn.clear();
+        } else if (!netIn.hasRemaining()) {
+            this.netIn = grow(netIn, engine.getSession().getPacketBufferSize());
+        }
+    }
+
+    private void runDelegatedTasks() {
+        Runnable task;
+        while ((task = engine.getDelegatedTask()) != null) {
+            task.run();
+        }
+    }
+
+    // Splits decrypted bytes into frames: JSON lines, or length-prefixed binary frames
+    private void deliverAppData(ByteBuffer appIn) {
+        appIn.flip();
+        while (appIn.hasRemaining()) {
+            if (lineLength == 0 && !inBinaryFrame && appIn.get(appIn.position()) == 0) {
+                inBinaryFrame = true;
+                binaryRemaining = -1;
+            }
+            if (inBinaryFrame) {
+                if (!readBinary(appIn)) {
+                    return;
+                }
+                continue;
+            }
+            byte b = appIn.get();
+            if (b == '\n') {
+                int length = lineLength;
+                if (length > 0 && lineBuffer[length - 1] == '\r') length--;
+                enqueueFrame(new String(lineBuffer, 0, length, StandardCharsets.UTF_8));
+                lineLength = 0;
+            } else {
+                if (!ensureLineCapacity(appIn)) {
+                    return;
+                }
+                lineBuffer[lineLength++] = b;
+            }
+        }
+        appIn.clear();
+    }
+
+    // Consumes bytes of the current binary frame; false if the connection was closed
+    private boolean readBinary(ByteBuffer appIn) {
+        if (binaryRemaining < 0) {
+            while (lineLength < BinaryWire.HEADER_LENGTH && appIn.hasRemaining()) {
+                lineBuffer[lineLength++] = appIn.get();
+            }
+            if (lineLength < BinaryWire.HEADER_LENGTH) {
+                return true;
+            }
+            binaryRemaining = ((lineBuffer[1] & 0xFF) << 16) | ((lineBuffer[2] & 0xFF) << 8) | (lineBuffer[3] & 0xFF);
+            lineLength = 0;
+            if (binaryRemaining > MAX_FRAME_LENGTH) {
+                System.err.println("Frame too long from " + remoteAddress + ", closing connection");
+                appIn.clear();
+                closeNow();
+                return false;
+            }
+            if (lineBuffer.length < binaryRemaining) {
+                lineBuffer = Arrays.copyOf(lineBuffer, binaryRemaining);
+            }
+        }
+        int count = Math.min(binaryRemaining, appIn.remaining());
+        appIn.get(lineBuffer, lineLength, count);
+        lineLength += count;
+        binaryRemaining -= count;
+        if (binaryRemaining == 0) {
+            enqueueFrame(Arrays.copyOf(lineBuffer, lineLength));
+            lineLength = 0;
+            inBinaryFrame = false;
+            binaryRemaining = -1;
+        }
+        return true;
+    }
+
+    private boolean ensureLineCapacity(ByteBuffer appIn) {
+        if (lineLength == lineBuffer.length) {
+            if (lineLength >= MAX_FRAME_LENGTH) {
+                System.err.println("Frame too long from " + remoteAddress + ", closing connection");
+                appIn.clear();
+                closeNow();
+                return false;
+            }
+            lineBuffer = Arrays.copyOf(lineBuffer, lineLength * 2);
+        }
+        return true;
+    }
+
+    private void enqueueFrame(Object frame) {
+        inbox.add(frame);
+        if (draining.compareAndSet(false, true)) {
+            Thread.startVirtualThread(this::drainInbox);
+        }
+    }
+
+    private void drainInbox() {
+        while (true) {
+            Object frame;
+            while ((frame = inbox.poll()) != null) {
+                try {
+                    if (frame == CLOSED_MARKER) {
+                        handler.onDisconnect();
+                    } else if (frame instanceof byte[] payload) {
+                        handler.handleBinaryFrame(payload, 0, payload.length);
+                    } else {
+                        handler.handleFrame((String) frame);
+                    }
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+            }
+            draining.set(false);
+            if (inbox.isEmpty() || !draining.compareAndSet(false, true)) {
+                return;
+            }
+        }
+    }
+
+    // Returns false when the socket cannot take more bytes right now
+    private boolean wrap(ByteBuffer src) throws IOException {
+        SSLEngineResult result = engine.wrap(src, netOut());
+        switch (result.getStatus()) {
+            case BUFFER_OVERFLOW:
+                if (!flushNet()) return false;
+                if (netOut().capacity() < engine.getSession().getPacketBufferSize()) {
+                    netOut = ByteBuffer.allocate(engine.getSession().getPacketBufferSize());
+                }
+                return true;
+            case CLOSED:
+                return false;
+            default:
+                if (result.getHandshakeStatus() == HandshakeStatus.NEED_TASK) {
+                    runDelegatedTasks();
+                }
+                return true;
+        }
+    }
+
+    private ByteBuffer netOut() {
+        return netOut != null ? netOut : loop.netOut;
+    }
+
+    // Writes buffered TLS records; returns true when nothing is left pending
+    private boolean flushNet() throws IOException {
+        ByteBuffer out = netOut();
+        out.flip();
+        try {
+            while (out.hasRemaining()) {
+                if (channel.write(out) == 0) break;
+            }
+        } finally {
+            out.compact();
+        }
+        if (out.position() == 0) {
+            netOut = null;
+            return true;
+        }
+        if (out == loop.netOut) {
+            netOut = copyOf(out, out.capacity());
+            out.clear();
+        }
+        return false;
+    }
+
+    // Loop thread
+    private void flush() {
+        if (closed) return;
+        flushScheduled.set(false);
+        try {
+            HandshakeStatus hs = engine.getHandshakeStatus();
+            boolean handshakeDone = hs == HandshakeStatus.NOT_HANDSHAKING || hs == HandshakeStatus.FINISHED;
+            if (handshakeDone) {
+                while (true) {
+                    if (writing == null) {
+                        OutboundFrame next = outbound.poll();
+                        if (next == null) break;
+                        try {
+                            writing = next.asByteBuffer(binaryEncoder);
+                        } catch (IllegalArgumentException e) {
+                            // too long for the client to read: skipped, the connection stays usable
+                            System.err.println("Dropped a frame for " + remoteAddress + ": " + e.getMessage());
+                            continue;
+                        }
+                    }
+                    if (!wrap(writing)) break;
+                    if (!writing.hasRemaining()) writing = null;
+                }
+            }
+            boolean pending = !flushNet() || (handshakeDone && (writing != null || outbound.getDepth() > 0));
+            if (closeRequested && !pending) {
+                finishClose();
+                return;
+            }
+            int ops = pending ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ;
+            if (key != null && key.isValid() && key.interestOps() != ops) {
+                key.interestOps(ops);
+            }
+        } catch (IOException e) {
+            closeNow();
+        }
+    }
+
+    private static ByteBuffer grow(ByteBuffer buffer, int minCapacity) {
+        return copyOf(buffer, Math.max(minCapacity, buffer.capacity() * 2));
+    }
+
+    private static ByteBuffer copyOf(ByteBuffer buffer, int capacity) {
+        ByteBuffer copy = ByteBuffer.allocate(capacity);
+        buffer.flip();
+        copy.put(buffer);
+        return copy;
+    }
+
+    @Override
+    public void send(OutboundFrame frame) {
+        if (closed) return;
+        if (!outbound.offer(frame)) {
+            System.err.println("Outbound queue full for " + remoteAddress + ", disconnecting slow client");
+            loop.execute(this::closeNow);
+            return;
+        }
+        if (flushScheduled.compareAndSet(false, true)) {
+            loop.execute(this::flush);
+        }
+    }
+
+    @Override
+    public boolean enableBinaryFraming() {
+        if (binaryEncoder == null) {
+            binaryEncoder = new BinaryWire.Encoder();
+        }
+        return true;
+    }
+
+    // Graceful: frames already queued are written before the channel is closed
+    @Override
+    public void close() {
+        outbound.close();
+        loop.execute(this::closeGracefully);
+    }
+
+    @Override
+    public void abort() {
+        outbound.close();
+        loop.execute(this::closeNow);
+    }
+
+    // Loop thread
+    private void closeGracefully() {
+        if (closed) return;
+        closeRequested = true;
+        flush();
+    }
+
+    // Loop thread: everything is flushed, send close_notify and drop the channel
+    private void finishClose() {
+        try {
+            engine.closeOutbound();
+            while (!engine.isOutboundDone()) {
+                if (!wrap(EMPTY)) break;
+            }
+            flushNet();
+        } catch (IOException e) {
+            // Closing anyway
+        }
+        closeNow();
+    }
+
+    // Loop thread
+    void closeNow() {
+        if (closed) return;
+        closed = true;
+        outbound.close();
+        writing = null;
+        netIn = null;
+        netOut = null;
+        loop.netOut.clear();
+        if (key != null) {
+            key.cancel();
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.err.println("Error closing connection: " + e.getMessage());
+        }
+        enqueueFrame(CLOSED_MARKER);
+    }
+
+    @Override
+    public OutboundQueue getOutboundQueue() {
+        return outbound;
+    }
+
+    @Override
+    public String getRemoteAddress() {
+        return remoteAddress;
+    }
+}
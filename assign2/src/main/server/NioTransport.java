@@ -0,0 +1,121 @@
+package server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLSession;
+
+// Selector-based transport: a small fixed set of I/O loops multiplexes every connection.
+// Idle clients cost a SelectionKey and their SSLEngine instead of a parked thread each; TLS
+// buffers are shared per loop (see NioConnection).
+public class NioTransport {
+    private final ChatServer server;
+    private final SSLContext sslContext;
+    private final InetSocketAddress address;
+    private final IoLoop[] loops;
+
+    public NioTransport(ChatServer server, SSLContext sslContext, InetSocketAddress address, int loopCount) {
+        this.server = server;
+        this.sslContext = sslContext;
+        this.address = address;
+        this.loops = new IoLoop[Math.max(1, loopCount)];
+    }
+
+    // Blocks accepting connections, like the blocking transport's accept loop
+    public void start() throws IOException {
+        SSLSession sizing = sslContext.createSSLEngine().getSession();
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new IoLoop(Selector.open(), sizing);
+            Thread thread = new Thread(loops[i], "nio-loop-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            serverChannel.bind(address);
+            System.out.println("Chat server started on port " + address.getPort() + " and address " + address.getAddress()
+                    + " (nio, " + loops.length + " I/O loops)");
+
+            int next = 0;
+            while (true) {
+                SocketChannel channel = serverChannel.accept();
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                System.out.println("New client connected from " + channel.socket().getInetAddress());
+
+                SSLEngine engine = sslContext.createSSLEngine();
+                engine.setUseClientMode(false);
+                engine.setEnabledProtocols(new String[]{"TLSv1.2", "TLSv1.3"});
+
+                IoLoop loop = loops[next];
+                next = (next + 1) % loops.length;
+                NioConnection connection = new NioConnection(channel, engine, loop, server);
+                loop.execute(connection::register);
+            }
+        }
+    }
+
+    // One selector thread; every SSLEngine and channel operation of its connections runs here
+    static class IoLoop implements Runnable {
+        final Selector selector;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+        // Shared by every connection of this loop; only touched on the loop thread
+        ByteBuffer netIn;
+        ByteBuffer netOut;
+        ByteBuffer appIn;
+
+        IoLoop(Selector selector, SSLSession session) {
+            this.selector = selector;
+            this.netIn = ByteBuffer.allocate(session.getPacketBufferSize());
+            this.netOut = ByteBuffer.allocate(session.getPacketBufferSize());
+            this.appIn = ByteBuffer.allocate(session.getApplicationBufferSize());
+        }
+
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                try {
+                    selector.select();
+
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) {
+                        task.run();
+                    }
+
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        NioConnection connection = (NioConnection) key.attachment();
+                        if (!key.isValid()) {
+                            connection.closeNow();
+                            continue;
+                        }
+                        if (key.isReadable()) {
+                            connection.onReadable();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            connection.onWritable();
+                        }
+                    }
+                } catch (IOException e) {
+                    System.err.println("I/O loop error: " + e.getMessage());
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+}
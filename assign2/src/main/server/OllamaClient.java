@@ -1,92 +1,231 @@
 package server;
 
+import org.json.JSONArray;
 import org.json.JSONObject;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.io.*;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
 
-public class OllamaClient {
-    private static final String OLLAMA_URL = "http://localhost:11434";
+// LlmBackend for an Ollama server (or anything speaking its API, such as LlmStandInServer).
+// All instances share one HttpClient, which keeps HTTP/1.1 connections alive between requests,
+// so health probes and generations reuse pooled connections instead of opening new ones.
+// Each instance has its own OllamaHealthMonitor, fed by its probes and by generation outcomes.
+public final class OllamaClient implements LlmBackend {
+    private static final String DEFAULT_URL = "http://localhost:11434";
     private static final String DEFAULT_MODEL = "phi3";
-    
-    public static String generateResponse(String prompt, String model) {
-        try {
-            // Se não especificar modelo, usa o padrão
-            if (model == null || model.isEmpty()) {
-                model = DEFAULT_MODEL;
-            }
-            
-            // Criar o request JSON
-            JSONObject requestJson = new JSONObject();
-            requestJson.put("model", model);
-            requestJson.put("prompt", prompt);
-            requestJson.put("stream", true); // Usar streaming
-            
-            // Configurar a conexão HTTP
-            URL url = new URL(OLLAMA_URL + "/api/generate");
-            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-            connection.setRequestMethod("POST");
-            connection.setRequestProperty("Content-Type", "application/json");
-            connection.setDoOutput(true);
-            
-            // Enviar o request
-            try (OutputStreamWriter writer = new OutputStreamWriter(connection.getOutputStream(), StandardCharsets.UTF_8)) {
-                writer.write(requestJson.toString());
-                writer.flush();
+
+    // -Dchat.ollama.connectTimeoutMs / -Dchat.ollama.requestTimeoutMs
+    static final long CONNECT_TIMEOUT_MS = Long.getLong("chat.ollama.connectTimeoutMs", 5_000);
+    static final long REQUEST_TIMEOUT_MS = Long.getLong("chat.ollama.requestTimeoutMs", 120_000);
+    private static final long PROBE_TIMEOUT_MS = 5_000;
+    // -Dchat.ollama.keepAlive: how long Ollama keeps the model (and its KV cache) loaded after a
+    // request. Ollama's own default is 5m, after which the next message pays a full model load.
+    static final String KEEP_ALIVE = System.getProperty("chat.ollama.keepAlive", "30m");
+
+    private static final String ERROR_RESPONSE = "Desculpa, não consegui processar o teu pedido.";
+    private static final String INTERNAL_ERROR_RESPONSE = "Desculpa, ocorreu um erro interno.";
+
+    // Ollama only speaks HTTP/1.1; pinning the version skips the h2c upgrade attempt
+    private static final HttpClient HTTP = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofMillis(CONNECT_TIMEOUT_MS))
+            .executor(Executors.newVirtualThreadPerTaskExecutor())
+            .build();
+
+    private final String baseUrl;
+    private final OllamaHealthMonitor health;
+
+    public OllamaClient(String baseUrl) {
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+        this.health = new OllamaHealthMonitor(this::probe, OllamaHealthMonitor.HEALTH_INTERVAL_MS,
+                OllamaHealthMonitor.OPEN_MS, OllamaHealthMonitor.MAX_OPEN_MS, OllamaHealthMonitor.FAILURE_THRESHOLD);
+        this.health.start();
+    }
+
+    // -Dchat.ollama.url, else the OLLAMA_URL environment variable (set by docker-compose.yml),
+    // else the local default
+    public static String configuredUrl() {
+        String url = System.getProperty("chat.ollama.url");
+        if (url == null || url.isBlank()) {
+            url = System.getenv("OLLAMA_URL");
+        }
+        return url == null || url.isBlank() ? DEFAULT_URL : url;
+    }
+
+    public String getBaseUrl() {
+        return baseUrl;
+    }
+
+    public OllamaHealthMonitor getHealth() {
+        return health;
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return health.isAvailable();
+    }
+
+    // /api/generate continuing from a previous Generation's context (or a fresh conversation if
+    // context is null): prompt only needs to hold what is new since then
+    @Override
+    public CompletableFuture<Generation> generate(String prompt, JSONArray context, String model, Consumer<String> onChunk) {
+        return withFallback(requestStream("/api/generate", generateBody(prompt, context, model), onChunk,
+                chunk -> chunk.optString("response", "")));
+    }
+
+    @Override
+    public CompletableFuture<String> generateOrFail(String prompt, String model) {
+        return requestStream("/api/generate", generateBody(prompt, null, model), chunk -> { },
+                chunk -> chunk.optString("response", "")).thenApply(Generation::text);
+    }
+
+    // /api/chat with the full message list ({"role": ..., "content": ...} objects). The
+    // conversation lives on the caller's side, so every call resends it; keep_alive and an
+    // unchanged message prefix let Ollama reuse its cached evaluation of that prefix.
+    public CompletableFuture<Generation> chat(JSONArray messages, String model, Consumer<String> onChunk) {
+        JSONObject requestJson = new JSONObject();
+        requestJson.put("model", modelOrDefault(model));
+        requestJson.put("messages", messages);
+        requestJson.put("stream", true);
+        requestJson.put("keep_alive", KEEP_ALIVE);
+        return withFallback(requestStream("/api/chat", requestJson, onChunk, chunk -> {
+            JSONObject message = chunk.optJSONObject("message");
+            return message != null ? message.optString("content", "") : "";
+        }));
+    }
+
+    private static final class StatusException extends IOException {
+        private static final long serialVersionUID = 1L;
+        final int status;
+
+        StatusException(int status) {
+            super("HTTP " + status);
+            this.status = status;
+        }
+    }
+
+    private static Throwable unwrap(Throwable e) {
+        return e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+    }
+
+    // Whether a failed request says something about Ollama's health: a 4xx (unknown model, bad
+    // request) is an answer from a working server, so it must not open the circuit for everyone
+    private static boolean countsAsOutage(Throwable e) {
+        return !(unwrap(e) instanceof StatusException status) || status.status >= 500;
+    }
+
+    private static String modelOrDefault(String model) {
+        // Se não especificar modelo, usa o padrão
+        return model == null || model.isEmpty() ? DEFAULT_MODEL : model;
+    }
+
+    private static JSONObject generateBody(String prompt, JSONArray context, String model) {
+        // Criar o request JSON
+        JSONObject requestJson = new JSONObject();
+        requestJson.put("model", modelOrDefault(model));
+        requestJson.put("prompt", prompt);
+        requestJson.put("stream", true); // Usar streaming
+        requestJson.put("keep_alive", KEEP_ALIVE);
+        if (context != null) {
+            requestJson.put("context", context);
+        }
+        return requestJson;
+    }
+
+    private static CompletableFuture<Generation> withFallback(CompletableFuture<Generation> generation) {
+        return generation.exceptionally(e -> {
+            Throwable cause = unwrap(e);
+            if (cause instanceof StatusException) {
+                System.err.println("Erro na chamada ao Ollama: " + cause.getMessage());
+                return new Generation(ERROR_RESPONSE, null, true);
             }
-            
-            // Ler a resposta streaming
-            int responseCode = connection.getResponseCode();
-            if (responseCode == HttpURLConnection.HTTP_OK) {
-                try (BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8))) {
-                    StringBuilder fullResponse = new StringBuilder();
-                    String line;
-                    
-                    while ((line = reader.readLine()) != null) {
-                        try {
-                            JSONObject responseChunk = new JSONObject(line);
-                            if (responseChunk.has("response")) {
-                                fullResponse.append(responseChunk.getString("response"));
-                            }
-                            
-                            // Se chegámos ao fim da resposta
-                            if (responseChunk.optBoolean("done", false)) {
-                                break;
-                            }
-                        } catch (Exception jsonError) {
-                            // Ignora linhas que não são JSON válido
-                            continue;
+            System.err.println("Erro ao comunicar com o Ollama: " + cause);
+            return new Generation(INTERNAL_ERROR_RESPONSE, null, true);
+        });
+    }
+
+    private CompletableFuture<Generation> requestStream(String path, JSONObject body, Consumer<String> onChunk,
+                                                        Function<JSONObject, String> chunkText) {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + path))
+                .timeout(Duration.ofMillis(REQUEST_TIMEOUT_MS))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body.toString(), StandardCharsets.UTF_8))
+                .build();
+
+        return HTTP.sendAsync(request, HttpResponse.BodyHandlers.ofLines())
+                .thenApply(response -> {
+                    try (Stream<String> lines = response.body()) {
+                        if (response.statusCode() != 200) {
+                            throw new CompletionException(new StatusException(response.statusCode()));
                         }
+                        Generation generation = collectStream(lines, onChunk, chunkText);
+                        health.recordSuccess();
+                        return generation;
                     }
-                    
-                    return fullResponse.toString().trim();
-                }
-            } else {
-                System.err.println("Erro na chamada ao Ollama: " + responseCode);
-                return "Desculpa, não consegui processar o teu pedido.";
+                })
+                .whenComplete((generation, e) -> {
+                    if (e != null && countsAsOutage(e)) {
+                        health.recordFailure();
+                    }
+                });
+    }
+
+    // Ler a resposta streaming. The body is read to the end (the "done" chunk is the last line)
+    // so the connection goes back to the pool rather than being torn down.
+    private static Generation collectStream(Stream<String> lines, Consumer<String> onChunk,
+                                            Function<JSONObject, String> chunkText) {
+        StringBuilder fullResponse = new StringBuilder();
+        JSONArray[] context = {null};
+        boolean[] done = {false};
+        lines.forEach(line -> {
+            if (done[0] || line.isBlank()) {
+                return;
             }
-            
-        } catch (Exception e) {
-            System.err.println("Erro ao comunicar com o Ollama: " + e.getMessage());
-            e.printStackTrace();
-            return "Desculpa, ocorreu um erro interno.";
-        }
+            JSONObject responseChunk;
+            try {
+                responseChunk = new JSONObject(line);
+            } catch (Exception jsonError) {
+                // Ignora linhas que não são JSON válido
+                return;
+            }
+            String chunk = chunkText.apply(responseChunk);
+            if (!chunk.isEmpty()) {
+                fullResponse.append(chunk);
+                onChunk.accept(chunk);
+            }
+            done[0] = responseChunk.optBoolean("done", false);
+            if (done[0]) {
+                context[0] = responseChunk.optJSONArray("context");
+            }
+        });
+        return new Generation(fullResponse.toString().trim(), context[0]);
     }
-    
-    // Método para verificar se o Ollama está disponível
-    public static boolean isAvailable() {
-        try {
-            URL url = new URL(OLLAMA_URL + "/api/tags");
-            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-            connection.setRequestMethod("GET");
-            connection.setConnectTimeout(5000);
-            connection.setReadTimeout(5000);
-            
-            int responseCode = connection.getResponseCode();
-            return responseCode == HttpURLConnection.HTTP_OK;
-        } catch (Exception e) {
-            return false;
-        }
+
+    // Método para verificar se o Ollama está disponível (one real GET; used by the health
+    // monitor, callers should use isAvailable)
+    public boolean probe() {
+        return probeAsync().join();
+    }
+
+    public CompletableFuture<Boolean> probeAsync() {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + "/api/tags"))
+                .timeout(Duration.ofMillis(PROBE_TIMEOUT_MS))
+                .GET()
+                .build();
+
+        // discard the body but read it fully, otherwise the connection is not reusable
+        return HTTP.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+                .thenApply(response -> response.statusCode() == 200)
+                .exceptionally(e -> false);
     }
-}
\ No newline at end of file
+}
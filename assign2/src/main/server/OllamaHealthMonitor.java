@@ -0,0 +1,151 @@
+package server;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+
+// Cached Ollama availability, kept up to date by a background prober with a circuit breaker, so
+// AIRooms read a volatile field instead of making a GET to /api/tags before every generation.
+// Each OllamaClient owns one.
+//
+// CLOSED:    Ollama is usable. Probed every HEALTH_INTERVAL_MS; FAILURE_THRESHOLD consecutive
+//            failures (failed probes or failed generations) open the circuit.
+// OPEN:      Ollama is treated as down and callers fail fast. After the open interval (starting
+//            at OPEN_MS and doubling up to MAX_OPEN_MS while it stays down) the circuit goes
+//            half-open.
+// HALF_OPEN: a single trial probe is running; success closes the circuit, failure reopens it.
+public class OllamaHealthMonitor {
+    // -Dchat.ollama.healthIntervalMs / -Dchat.ollama.openMs / -Dchat.ollama.maxOpenMs / -Dchat.ollama.failureThreshold
+    static final long HEALTH_INTERVAL_MS = Long.getLong("chat.ollama.healthIntervalMs", 15_000);
+    static final long OPEN_MS = Long.getLong("chat.ollama.openMs", 5_000);
+    static final long MAX_OPEN_MS = Long.getLong("chat.ollama.maxOpenMs", 60_000);
+    static final int FAILURE_THRESHOLD = Integer.getInteger("chat.ollama.failureThreshold", 2);
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final BooleanSupplier probe;
+    private final long intervalNanos;
+    private final long openNanos;
+    private final long maxOpenNanos;
+    private final int failureThreshold;
+
+    private volatile State state = State.CLOSED;
+    private final Lock lock = new ReentrantLock();
+    private final Condition rescheduled = lock.newCondition();
+    private volatile int consecutiveFailures = 0; // written with lock held
+    private long currentOpenNanos;
+    private long nextProbeNanos;
+
+    public OllamaHealthMonitor(BooleanSupplier probe, long intervalMs, long openMs, long maxOpenMs, int failureThreshold) {
+        this.probe = probe;
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMs);
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMs);
+        this.maxOpenNanos = Math.max(openNanos, TimeUnit.MILLISECONDS.toNanos(maxOpenMs));
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.currentOpenNanos = openNanos;
+        this.nextProbeNanos = System.nanoTime(); // first probe right away
+    }
+
+    public void start() {
+        Thread prober = new Thread(this::probeLoop, "ollama-health");
+        prober.setDaemon(true);
+        prober.start();
+    }
+
+    // Just a volatile read; safe to call on every message
+    public boolean isAvailable() {
+        return state == State.CLOSED;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    // Outcome of a real generation, fed back so the circuit reacts without waiting for a probe
+    public void recordSuccess() {
+        if (state == State.CLOSED && consecutiveFailures == 0) {
+            return; // common case, no need to take the lock
+        }
+        lock.lock();
+        try {
+            closeCircuit();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void recordFailure() {
+        lock.lock();
+        try {
+            if (state == State.CLOSED && ++consecutiveFailures >= failureThreshold) {
+                openCircuit();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void probeLoop() {
+        while (true) {
+            lock.lock();
+            try {
+                long waitNanos;
+                while ((waitNanos = nextProbeNanos - System.nanoTime()) > 0) {
+                    rescheduled.awaitNanos(waitNanos);
+                }
+                if (state == State.OPEN) {
+                    state = State.HALF_OPEN;
+                }
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                lock.unlock();
+            }
+
+            boolean healthy;
+            try {
+                healthy = probe.getAsBoolean();
+            } catch (RuntimeException e) {
+                healthy = false;
+            }
+
+            lock.lock();
+            try {
+                if (healthy) {
+                    closeCircuit();
+                } else if (state == State.HALF_OPEN || ++consecutiveFailures >= failureThreshold) {
+                    openCircuit();
+                } else {
+                    // one failed probe in CLOSED: check again soon rather than after a full interval
+                    nextProbeNanos = System.nanoTime() + Math.min(intervalNanos, openNanos);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    // Both called with lock held
+    private void openCircuit() {
+        if (state != State.OPEN) {
+            System.err.println("Ollama unavailable, circuit open for " + TimeUnit.NANOSECONDS.toMillis(currentOpenNanos) + "ms");
+        }
+        state = State.OPEN;
+        nextProbeNanos = System.nanoTime() + currentOpenNanos;
+        currentOpenNanos = Math.min(currentOpenNanos * 2, maxOpenNanos);
+        rescheduled.signalAll();
+    }
+
+    private void closeCircuit() {
+        if (state != State.CLOSED) {
+            System.out.println("Ollama available again, circuit closed");
+        }
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        currentOpenNanos = openNanos;
+        nextProbeNanos = System.nanoTime() + intervalNanos;
+        rescheduled.signalAll();
+    }
+}
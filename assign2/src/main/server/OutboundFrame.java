@@ -0,0 +1,114 @@
+package server;
+
+import common.BinaryWire;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import org.json.JSONObject;
+
+// Immutable, pre-encoded outbound frame: UTF-8 JSON plus the trailing newline.
+// A broadcast encodes once and every recipient writes the same bytes.
+// Connections that negotiated binary framing write it through their own BinaryWire.Encoder
+// instead; the binary template is built on first use and likewise shared by all recipients.
+public final class OutboundFrame {
+    private final byte[] bytes;
+    private final JSONObject message; // null when built from a string
+    private volatile BinaryWire.Template binaryTemplate;
+
+    private OutboundFrame(byte[] bytes, JSONObject message) {
+        this.bytes = bytes;
+        this.message = message;
+    }
+
+    public static OutboundFrame of(String jsonMessage) {
+        return new OutboundFrame(encodeJson(jsonMessage), null);
+    }
+
+    // message must not be modified afterwards
+    public static OutboundFrame of(JSONObject message) {
+        return new OutboundFrame(encodeJson(message.toString()), message);
+    }
+
+    private static byte[] encodeJson(String jsonMessage) {
+        byte[] json = jsonMessage.getBytes(StandardCharsets.UTF_8);
+        byte[] bytes = new byte[json.length + 1];
+        System.arraycopy(json, 0, bytes, 0, json.length);
+        bytes[json.length] = '\n';
+        return bytes;
+    }
+
+    public int length() {
+        return bytes.length;
+    }
+
+    // Bytes value takes in a JSON frame, quotes included, escaped the way JSONObject does it
+    // (binary framing never takes more), counted without building the string
+    static int jsonLength(String value) {
+        int length = 2;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x20 || (c >= 0x80 && c < 0xa0) || (c >= 0x2000 && c < 0x2100)) {
+                length += 6; // a six-byte unicode escape, or two for a newline and the like
+            } else if (c == '"' || c == '\\' || c == '/') {
+                length += 2;
+            } else if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800 || Character.isSurrogate(c)) {
+                length += 2; // a surrogate pair is four bytes
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(bytes);
+    }
+
+    // Writes the frame in the connection's framing: JSON when binary is null. Throws
+    // IllegalArgumentException, writing nothing, if the frame is too long for the peer to read
+    public void writeTo(OutputStream out, BinaryWire.Encoder binary) throws IOException {
+        if (binary == null) {
+            checkJsonLength();
+            out.write(bytes);
+        } else {
+            ByteBuffer frame = binary.encode(binaryTemplate());
+            out.write(frame.array(), frame.arrayOffset() + frame.position(), frame.remaining());
+        }
+    }
+
+    // Fresh read-only view per recipient; the underlying bytes are shared
+    public ByteBuffer asByteBuffer() {
+        return ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+    }
+
+    // Throws IllegalArgumentException like writeTo
+    public ByteBuffer asByteBuffer(BinaryWire.Encoder binary) {
+        if (binary == null) {
+            checkJsonLength();
+            return asByteBuffer();
+        }
+        return binary.encode(binaryTemplate());
+    }
+
+    // Readers refuse a JSON line of MAX_FRAME_LENGTH bytes or more, newline excluded
+    private void checkJsonLength() {
+        if (bytes.length > BinaryWire.MAX_FRAME_LENGTH) {
+            throw new IllegalArgumentException("Frame too long: " + bytes.length + " bytes");
+        }
+    }
+
+    // Benign race: concurrent first uses may each build an identical template
+    private BinaryWire.Template binaryTemplate() {
+        BinaryWire.Template template = binaryTemplate;
+        if (template == null) {
+            JSONObject source = message != null ? message
+                    : new JSONObject(new String(bytes, 0, bytes.length - 1, StandardCharsets.UTF_8));
+            template = BinaryWire.template(source);
+            binaryTemplate = template;
+        }
+        return template;
+    }
+}
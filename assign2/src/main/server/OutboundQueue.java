@@ -0,0 +1,148 @@
+package server;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Bounded per-client queue of outbound frames.
+// Producers (room broadcasts, replies) only enqueue; the connection's writer drains it,
+// so a client with a full TCP window can no longer stall the senders.
+public class OutboundQueue {
+
+    public enum OverflowPolicy {
+        DROP_OLDEST,
+        DROP_NEWEST,
+        DISCONNECT;
+
+        static OverflowPolicy parse(String value) {
+            try {
+                return valueOf(value.trim().toUpperCase().replace('-', '_'));
+            } catch (IllegalArgumentException e) {
+                System.err.println("Unknown outbound overflow policy '" + value + "'. Using DROP_OLDEST.");
+                return DROP_OLDEST;
+            }
+        }
+    }
+
+    // Defaults, overridable with -Dchat.outbound.capacity=... -Dchat.outbound.policy=drop_oldest|drop_newest|disconnect
+    static final int DEFAULT_CAPACITY = Integer.getInteger("chat.outbound.capacity", 1024);
+    static final OverflowPolicy DEFAULT_POLICY = OverflowPolicy.parse(System.getProperty("chat.outbound.policy", "drop_oldest"));
+
+    private final ArrayDeque<OutboundFrame> queue = new ArrayDeque<>();
+    private final int capacity;
+    private final OverflowPolicy policy;
+    private final Lock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+
+    private long droppedCount = 0;
+    private boolean closed = false;
+
+    public OutboundQueue() {
+        this(DEFAULT_CAPACITY, DEFAULT_POLICY);
+    }
+
+    public OutboundQueue(int capacity, OverflowPolicy policy) {
+        this.capacity = Math.max(1, capacity);
+        this.policy = policy;
+    }
+
+    // Returns false only when the queue overflowed under the DISCONNECT policy; the caller then drops the client
+    public boolean offer(OutboundFrame frame) {
+        lock.lock();
+        try {
+            if (closed) {
+                return true;
+            }
+            if (queue.size() >= capacity) {
+                droppedCount++;
+                switch (policy) {
+                    case DROP_OLDEST:
+                        queue.pollFirst();
+                        break;
+                    case DROP_NEWEST:
+                        return true;
+                    case DISCONNECT:
+                        closed = true;
+                        queue.clear();
+                        notEmpty.signalAll();
+                        return false;
+                }
+            }
+            queue.addLast(frame);
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Blocking take for writer threads; returns null once the queue is closed and drained
+    public OutboundFrame take() throws InterruptedException {
+        lock.lock();
+        try {
+            while (queue.isEmpty() && !closed) {
+                notEmpty.await();
+            }
+            return queue.pollFirst();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Non-blocking poll for the NIO loop
+    public OutboundFrame poll() {
+        lock.lock();
+        try {
+            return queue.pollFirst();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Stop accepting frames; frames already queued are still handed out
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isClosed() {
+        lock.lock();
+        try {
+            return closed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getDepth() {
+        lock.lock();
+        try {
+            return queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getDroppedCount() {
+        lock.lock();
+        try {
+            return droppedCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public OverflowPolicy getPolicy() {
+        return policy;
+    }
+}
@@ -0,0 +1,104 @@
+package server;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.concurrent.*;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+// Salted PBKDF2-HMAC-SHA256 password hashing on a bounded CPU pool.
+// Hashing is deliberately expensive, so it runs on at most one thread per core with a bounded
+// queue: a login flood waits here instead of saturating every carrier thread, and is rejected
+// with RejectedExecutionException once the queue is full.
+//
+// Stored format: pbkdf2$<iterations>$<base64 salt>$<base64 hash>
+// Entries written before this format (plain hex SHA-256) are still accepted.
+public class PasswordHasher {
+    // -Dchat.kdf.iterations: cost factor, see bench.LoginThroughputBench for numbers
+    static final int DEFAULT_ITERATIONS = Integer.getInteger("chat.kdf.iterations", 100_000);
+    static final int DEFAULT_THREADS = Integer.getInteger("chat.kdf.threads", Runtime.getRuntime().availableProcessors());
+    static final int DEFAULT_QUEUE_CAPACITY = Integer.getInteger("chat.kdf.queue", 1024);
+
+    private static final String PREFIX = "pbkdf2";
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final int SALT_BYTES = 16;
+    private static final int KEY_BITS = 256;
+
+    private final int iterations;
+    private final ExecutorService pool;
+    private final SecureRandom random = new SecureRandom();
+
+    public PasswordHasher() {
+        this(DEFAULT_ITERATIONS, DEFAULT_THREADS, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    public PasswordHasher(int iterations, int threads, int queueCapacity) {
+        this.iterations = iterations;
+        int poolSize = Math.max(1, threads);
+        ThreadFactory factory = runnable -> {
+            Thread thread = new Thread(runnable, "password-hasher");
+            thread.setDaemon(true);
+            return thread;
+        };
+        this.pool = new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queueCapacity)), factory, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    // Completes with the encoded hash; throws RejectedExecutionException when the queue is full
+    public CompletableFuture<String> hash(String password) {
+        byte[] salt = new byte[SALT_BYTES];
+        random.nextBytes(salt);
+        return CompletableFuture.supplyAsync(() -> encode(iterations, salt, derive(password, salt, iterations)), pool);
+    }
+
+    // Completes with true if the password matches; throws RejectedExecutionException when the queue is full
+    public CompletableFuture<Boolean> verify(String password, String stored) {
+        return CompletableFuture.supplyAsync(() -> matches(password, stored), pool);
+    }
+
+    // True for legacy entries and for entries hashed with a different cost than the current one
+    public boolean needsRehash(String stored) {
+        String[] parts = stored.split("\\$");
+        return parts.length != 4 || !parts[0].equals(PREFIX) || Integer.parseInt(parts[1]) != iterations;
+    }
+
+    public int getIterations() {
+        return iterations;
+    }
+
+    private static boolean matches(String password, String stored) {
+        String[] parts = stored.split("\\$");
+        if (parts.length == 4 && parts[0].equals(PREFIX)) {
+            int storedIterations = Integer.parseInt(parts[1]);
+            byte[] salt = Base64.getDecoder().decode(parts[2]);
+            byte[] expected = Base64.getDecoder().decode(parts[3]);
+            return MessageDigest.isEqual(expected, derive(password, salt, storedIterations));
+        }
+        try {
+            // Legacy unsalted SHA-256 entry
+            byte[] legacy = UserStore.hashString(password).getBytes(StandardCharsets.US_ASCII);
+            return MessageDigest.isEqual(legacy, stored.getBytes(StandardCharsets.US_ASCII));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] derive(String password, byte[] salt, int iterations) {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, KEY_BITS);
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+
+    private static String encode(int iterations, byte[] salt, byte[] hash) {
+        Base64.Encoder encoder = Base64.getEncoder().withoutPadding();
+        return PREFIX + "$" + iterations + "$" + encoder.encodeToString(salt) + "$" + encoder.encodeToString(hash);
+    }
+}
@@ -0,0 +1,41 @@
+package server;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Admission control for RECONNECT. After a restart or a network blip every client comes back at
+// once; past RATE per second (token bucket, one second of burst) a reconnect is refused with a
+// retry-after hint instead of being served. Refused clients are counted as a queue that drains at
+// RATE per second, and each one is told to come back when its place in that queue comes up, so
+// the herd returns spread out at roughly the rate the server admits.
+final class ReconnectThrottle {
+    // -Dchat.reconnect.ratePerSec: reconnects admitted per second (at least 1)
+    static final int RATE = Math.max(1, Integer.getInteger("chat.reconnect.ratePerSec", 200));
+
+    private final Lock lock = new ReentrantLock();
+    private double tokens = RATE;
+    private double waiting = 0; // refused clients not yet due back
+    private long lastRefillNanos = System.nanoTime();
+
+    // 0 if the reconnect may proceed, otherwise how many milliseconds the client should wait
+    long admit() {
+        lock.lock();
+        try {
+            long now = System.nanoTime();
+            double refill = (now - lastRefillNanos) / 1e9 * RATE;
+            lastRefillNanos = now;
+            tokens = Math.min(RATE, tokens + refill);
+            waiting = Math.max(0, waiting - refill);
+            if (tokens >= 1) {
+                tokens -= 1;
+                return 0;
+            }
+            waiting += 1;
+            long spread = Math.max(1, 1000 / RATE);
+            return (long) Math.ceil(waiting * 1000 / RATE) + ThreadLocalRandom.current().nextLong(spread);
+        } finally {
+            lock.unlock();
+        }
+    }
+}
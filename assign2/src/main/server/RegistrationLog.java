@@ -0,0 +1,90 @@
+package server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+// Append-only user file with group commit.
+// A single writer thread collects the registrations that arrive within one commit window,
+// appends them with one write and one fsync, and only then completes their futures.
+public class RegistrationLog {
+    // -Dchat.users.commitWindowMs: how long the writer waits for more entries after the first one
+    private static final long COMMIT_WINDOW_MS = Long.getLong("chat.users.commitWindowMs", 2);
+    private static final int MAX_BATCH = 512;
+
+    private record PendingEntry(String line, CompletableFuture<Void> durable) { }
+
+    private final Path path;
+    private final BlockingQueue<PendingEntry> pending = new LinkedBlockingQueue<>();
+
+    public RegistrationLog(Path path) {
+        this.path = path;
+        Thread writer = new Thread(this::writeLoop, "registration-log");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    // Completes once the line is on disk, or exceptionally if the batch could not be written
+    public CompletableFuture<Void> append(String line) {
+        CompletableFuture<Void> durable = new CompletableFuture<>();
+        pending.add(new PendingEntry(line, durable));
+        return durable;
+    }
+
+    private void writeLoop() {
+        List<PendingEntry> batch = new ArrayList<>();
+        while (true) {
+            try {
+                batch.add(pending.take());
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(COMMIT_WINDOW_MS);
+                while (batch.size() < MAX_BATCH) {
+                    long remaining = deadline - System.nanoTime();
+                    PendingEntry next = remaining > 0 ? pending.poll(remaining, TimeUnit.NANOSECONDS) : pending.poll();
+                    if (next == null) break;
+                    batch.add(next);
+                }
+                commit(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void commit(List<PendingEntry> batch) {
+        StringBuilder lines = new StringBuilder();
+        for (PendingEntry entry : batch) {
+            lines.append(entry.line()).append(System.lineSeparator());
+        }
+        ByteBuffer bytes = ByteBuffer.wrap(lines.toString().getBytes(StandardCharsets.UTF_8));
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+            channel.force(false);
+        } catch (IOException e) {
+            System.err.println("Error writing user registrations: " + e.getMessage());
+            for (PendingEntry entry : batch) {
+                entry.durable().completeExceptionally(e);
+            }
+            return;
+        }
+
+        for (PendingEntry entry : batch) {
+            entry.durable().complete(null);
+        }
+    }
+}
@@ -1,32 +1,256 @@
 package server;
 
+import common.BinaryWire;
 import common.MessageType;
+import org.json.JSONArray;
 import org.json.JSONObject;
 
 import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 import java.time.Instant;
 
 public class Room {
     private String name;
-    protected List<ClientHandler> clients; // access needs to be done via locks
+    // Immutable snapshot of the members; broadcasts iterate it without locking.
+    // Joins and leaves copy it and publish a new one under clientListLock.
+    private volatile List<ClientHandler> clients = List.of();
     protected final Lock clientListLock = new ReentrantLock();
+    private boolean retired = false; // replaced in the registry; guarded by clientListLock
+    private final MessageLog log; // null: messages are not kept
+
+    // -Dchat.history.replay: messages sent to a client when it joins or reconnects
+    static final int REPLAY_MESSAGES = Integer.getInteger("chat.history.replay", 50);
+    // -Dchat.history.maxPage: the most messages one HISTORY_REQUEST gets
+    static final int MAX_HISTORY_PAGE = Integer.getInteger("chat.history.maxPage", 100);
+    // What a frame takes besides its strings (type, keys, numbers, timestamp, punctuation), and
+    // what each HISTORY entry takes besides its sender and content
+    static final int FRAME_ENVELOPE_BYTES = 256;
+    private static final int HISTORY_ENTRY_BYTES = 128;
+
+    // Sequenced frames (MESSAGE_RECEIVED, BOT_MESSAGE_END) carry "seq", a per-room counter. Each
+    // one is numbered, kept in the replay ring and queued to every member in one step under
+    // sequenceLock, so members get them in seq order, and a join or resume under the same lock
+    // has an exact watermark: the client gets every frame after it and none before.
+    // The epoch tells this room's numbering apart from a previous server run or room instance.
+    // -Dchat.replay.frames: sequenced frames kept per room for clients that reconnect
+    static final int REPLAY_FRAMES = Integer.getInteger("chat.replay.frames", 256);
+    private final long epoch = ThreadLocalRandom.current().nextLong(1, Long.MAX_VALUE);
+    private final Lock sequenceLock = new ReentrantLock();
+    private long lastSeq = 0;
+    private final ArrayDeque<OutboundFrame> replayRing = new ArrayDeque<>(); // seqs lastSeq - size + 1 .. lastSeq
 
     public Room(String name) {
+        this(name, null);
+    }
+
+    public Room(String name, MessageLog log) {
         this.name = name;
-        this.clients = new ArrayList<>();
+        this.log = log;
     }
 
     public String getName() {
         return name;
     }
 
-    public void addClient(ClientHandler client) {
+    // Returns false if the room was retired from the registry; the caller must look the name up again
+    public boolean addClient(ClientHandler client) {
+        return addClient(client, false);
+    }
+
+    // With acknowledge, ROOM_JOINED and the recent history are queued in the same step as the
+    // join. ROOM_JOINED carries the seq of the last frame the client does not get live (the
+    // history covers those that were logged); everything numbered after it follows.
+    boolean addClient(ClientHandler client, boolean acknowledge) {
+        sequenceLock.lock();
+        try {
+            if (!addMember(client)) {
+                return false;
+            }
+            if (acknowledge) {
+                client.sendRoomJoined(this, epoch, lastSeq);
+                sendHistory(client, 0, REPLAY_MESSAGES);
+            }
+            return true;
+        } finally {
+            sequenceLock.unlock();
+        }
+    }
+
+    // Rejoin after a reconnect. If the client's numbering is this room's and the ring still holds
+    // every frame after lastSeenSeq, those frames are replayed; otherwise the client is sent
+    // RESYNC with the current watermark, followed by the latest history. Returns false if the
+    // room was retired, like addClient.
+    boolean resumeClient(ClientHandler client, long clientEpoch, long lastSeenSeq) {
+        sequenceLock.lock();
+        try {
+            if (!addMember(client)) {
+                return false;
+            }
+            long missed = lastSeq - lastSeenSeq;
+            if (clientEpoch != epoch || missed < 0 || missed > replayRing.size()) {
+                JSONObject resync = new JSONObject();
+                resync.put("type", MessageType.RESYNC.toString());
+                resync.put("roomName", this.name);
+                resync.put("epoch", epoch);
+                resync.put("seq", lastSeq);
+                client.sendJsonMessage(resync.toString());
+                sendHistory(client, 0, REPLAY_MESSAGES);
+                return true;
+            }
+            Iterator<OutboundFrame> frames = replayRing.descendingIterator();
+            OutboundFrame[] replay = new OutboundFrame[(int) missed];
+            for (int i = replay.length - 1; i >= 0; i--) {
+                replay[i] = frames.next();
+            }
+            for (OutboundFrame frame : replay) {
+                client.sendFrame(frame);
+            }
+            return true;
+        } finally {
+            sequenceLock.unlock();
+        }
+    }
+
+    private boolean addMember(ClientHandler client) {
+        List<ClientHandler> previous;
+        clientListLock.lock();
+        try {
+            if (retired) {
+                return false;
+            }
+            previous = clients;
+            List<ClientHandler> updated = new ArrayList<>(previous.size() + 1);
+            updated.addAll(previous);
+            updated.add(client);
+            clients = Collections.unmodifiableList(updated);
+        } finally {
+            clientListLock.unlock();
+        }
+        broadcastUserJoined(client.getClient().getUsername(), previous);
+        return true;
+    }
+
+    // Called after the joining client has been sent ROOM_JOINED
+    public void onJoinAcknowledged(ClientHandler client) {
+    }
+
+    protected MessageLog getLog() {
+        return log;
+    }
+
+    // Whether a MESSAGE_RECEIVED from sender with this content fits in a frame. Content that does
+    // not is refused up front: the wrapped frame would be numbered and kept in the replay ring,
+    // and no member could read it
+    boolean fitsInMessage(String sender, String content) {
+        int maxLength = BinaryWire.MAX_FRAME_LENGTH - FRAME_ENVELOPE_BYTES;
+        // a char takes at most six bytes, so most messages need no counting
+        if (6L * (name.length() + sender.length() + content.length() + 6) < maxLength) {
+            return true;
+        }
+        return (long) OutboundFrame.jsonLength(name) + OutboundFrame.jsonLength(sender)
+                + OutboundFrame.jsonLength(content) < maxLength;
+    }
+
+    // Numbers the message, adds it to the replay ring and queues it to every member. With
+    // logged, the sender and content are also appended to the room's log and "id" is added.
+    // message must not be modified afterwards.
+    // Everything under sequenceLock is in memory and bounded: the log append only queues the
+    // entry for MessageStore's flusher, and sendFrame only offers the frame to each member's
+    // outbound queue, so a slow or dead client never holds up the room (see Connection.send).
+    void broadcastSequenced(JSONObject message, boolean logged) {
+        sequenceLock.lock();
+        try {
+            if (logged && log != null) {
+                message.put("id", log.append(message.getString("sender"), message.getString("content"), System.currentTimeMillis()));
+            }
+            message.put("seq", ++lastSeq);
+            OutboundFrame frame = OutboundFrame.of(message);
+            if (replayRing.size() == REPLAY_FRAMES) {
+                replayRing.pollFirst();
+            }
+            replayRing.addLast(frame);
+            for (ClientHandler client : clients) {
+                client.sendFrame(frame);
+            }
+        } finally {
+            sequenceLock.unlock();
+        }
+    }
+
+    // Sends client a HISTORY page of up to limit messages before beforeId, oldest first;
+    // beforeId 0 means the newest ones. Replays on join (beforeId 0) are skipped when empty.
+    // The page also stops at the oldest message that would push it past the frame limit, with
+    // hasMore set, so the client pages on from there.
+    public void sendHistory(ClientHandler client, long beforeId, int limit) {
+        List<MessageLog.Entry> page = log == null ? List.of()
+                : beforeId > 0 ? log.before(beforeId, limit) : log.latest(limit);
+        if (page.isEmpty() && beforeId == 0) {
+            return;
+        }
+
+        int budget = BinaryWire.MAX_FRAME_LENGTH - FRAME_ENVELOPE_BYTES - OutboundFrame.jsonLength(this.name);
+        JSONObject[] entries = new JSONObject[page.size()];
+        int first = page.size();
+        while (first > 0) {
+            MessageLog.Entry entry = page.get(first - 1);
+            String content = entry.content();
+            int size = HISTORY_ENTRY_BYTES + OutboundFrame.jsonLength(entry.sender()) + OutboundFrame.jsonLength(content);
+            if (size > budget) {
+                if (first < page.size()) {
+                    break;
+                }
+                // too big on its own (logged before inbound content was size-checked): sent cut
+                // short, or paging back would stop at it
+                content = truncate(content, (budget - size + OutboundFrame.jsonLength(content)) / 6);
+                size = budget;
+            }
+            budget -= size;
+            JSONObject message = new JSONObject();
+            message.put("id", entry.id());
+            message.put("sender", entry.sender());
+            message.put("content", content);
+            message.put("timestamp", Instant.ofEpochMilli(entry.timestampMillis()).toString());
+            entries[--first] = message;
+        }
+
+        JSONArray messages = new JSONArray();
+        for (int i = first; i < entries.length; i++) {
+            messages.put(entries[i]);
+        }
+
+        JSONObject response = new JSONObject();
+        response.put("type", MessageType.HISTORY.toString());
+        response.put("roomName", this.name);
+        if (beforeId > 0) {
+            response.put("beforeId", beforeId);
+        }
+        response.put("messages", messages);
+        response.put("hasMore", first > 0 || (first < page.size() && page.get(first).id() > 1));
+        client.sendJsonMessage(response.toString());
+    }
+
+    // The first chars of text (fewer if that would split a surrogate pair)
+    private static String truncate(String text, int chars) {
+        if (chars <= 0) {
+            return "";
+        }
+        if (chars >= text.length()) {
+            return text;
+        }
+        return text.substring(0, Character.isHighSurrogate(text.charAt(chars - 1)) ? chars - 1 : chars);
+    }
+
+    // Atomically marks an empty room as retired so no one can join it after it is replaced
+    boolean retireIfEmpty() {
         clientListLock.lock();
         try {
-            broadcastUserJoined(client.getClient().getUsername());
-            clients.add(client);
+            if (!clients.isEmpty()) {
+                return false;
+            }
+            retired = true;
+            return true;
         } finally {
             clientListLock.unlock();
         }
@@ -39,14 +263,31 @@ public class Room {
     public void removeClient(ClientHandler client) {
         clientListLock.lock();
         try {
-            clients.remove(client);
-            // Notify remaining clients that a user left
-            if (client.getClient() != null) {
-                broadcastUserLeft(client.getClient().getUsername());
+            if (!clients.contains(client)) {
+                return;
             }
+            List<ClientHandler> updated = new ArrayList<>(clients);
+            updated.remove(client);
+            clients = Collections.unmodifiableList(updated);
         } finally {
             clientListLock.unlock();
         }
+        // Notify remaining clients that a user left
+        if (client.getClient() != null) {
+            broadcastUserLeft(client.getClient().getUsername());
+        }
+    }
+
+    // Current membership snapshot; safe to iterate without holding any lock
+    protected List<ClientHandler> members() {
+        return clients;
+    }
+
+    // Sends an already encoded frame to every current member
+    void broadcastFrame(OutboundFrame frame) {
+        for (ClientHandler client : clients) {
+            client.sendFrame(frame);
+        }
     }
 
     public void broadcastMessage(String content, ClientHandler sender) {
@@ -58,34 +299,20 @@ public class Room {
         message.put("sender", username);
         message.put("content", content);
 
-        String jsonMessage = message.toString();
-
-        clientListLock.lock();
-        try {
-            for (ClientHandler client : clients) {
-                client.sendJsonMessage(jsonMessage);
-            }
-        } finally {
-            clientListLock.unlock();
-        }
+        broadcastSequenced(message, true);
     }
 
-    private void broadcastUserJoined(String username) {
+    private void broadcastUserJoined(String username, List<ClientHandler> recipients) {
         JSONObject message = new JSONObject();
         message.put("type", MessageType.USER_JOINED.toString());
         message.put("roomName", this.name);
         message.put("username", username);
         message.put("timestamp", Instant.now().toString());
 
-        String jsonMessage = message.toString();
+        OutboundFrame frame = OutboundFrame.of(message);
 
-        clientListLock.lock();
-        try {
-            for (ClientHandler client : clients) {
-                    client.sendJsonMessage(jsonMessage);
-            }
-        } finally {
-            clientListLock.unlock();
+        for (ClientHandler client : recipients) {
+            client.sendFrame(frame);
         }
     }
 
@@ -96,15 +323,10 @@ public class Room {
         message.put("username", username);
         message.put("timestamp", Instant.now().toString());
 
-        String jsonMessage = message.toString();
+        OutboundFrame frame = OutboundFrame.of(message);
 
-        clientListLock.lock();
-        try {
-            for (ClientHandler client : clients) {
-                client.sendJsonMessage(jsonMessage);
-            }
-        } finally {
-            clientListLock.unlock();
+        for (ClientHandler client : clients) {
+            client.sendFrame(frame);
         }
     }
 
@@ -115,39 +337,25 @@ public class Room {
         message.put("content", content);
         message.put("timestamp", Instant.now().toString());
 
-        String jsonMessage = message.toString();
+        OutboundFrame frame = OutboundFrame.of(message);
 
-        clientListLock.lock();
-        try {
-            for (ClientHandler client : clients) {
-                client.sendJsonMessage(jsonMessage);
-            }
-        } finally {
-            clientListLock.unlock();
+        for (ClientHandler client : clients) {
+            client.sendFrame(frame);
         }
     }
 
     // Get the number of clients in the room
     public int getClientCount() {
-        clientListLock.lock();
-        try {
-            return clients.size();
-        } finally {
-            clientListLock.unlock();
-        }
+        return clients.size();
     }
 
     // Get list of users in this room
     public List<String> getUserList() {
-        List<String> users = new ArrayList<>();
-        clientListLock.lock();
-        try {
-            for (ClientHandler client : clients) {
-                users.add(client.getClient().getUsername());
-            }
-            return users;
-        } finally {
-            clientListLock.unlock();
+        List<ClientHandler> snapshot = clients;
+        List<String> users = new ArrayList<>(snapshot.size());
+        for (ClientHandler client : snapshot) {
+            users.add(client.getClient().getUsername());
         }
+        return users;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,122 @@
+package server;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+// Login sessions: the token of each logged-in user, the connection that currently owns it and
+// when it lost that connection. Closing the connection only detaches the session, so the client
+// can RECONNECT with the same token; logging out ends it. A session never expires while it has a
+// connection (dead connections are closed by the IdleTimerWheel, which detaches them); a detached
+// one expires GRACE_MS after its connection went away. A single sweeper thread evicts expired
+// sessions every SWEEP_INTERVAL_MS, and lookups ignore expired ones in between.
+// Every change to a session happens inside compute on its username, so they are atomic per user.
+public final class SessionTable {
+    // -Dchat.session.graceMs / -Dchat.session.sweepMs
+    static final long GRACE_MS = Long.getLong("chat.session.graceMs", 120_000);
+    static final long SWEEP_INTERVAL_MS = Long.getLong("chat.session.sweepMs", 5_000);
+    private static final long GRACE_NANOS = TimeUnit.MILLISECONDS.toNanos(GRACE_MS);
+
+    private static final class Session {
+        final String token;
+        volatile ClientHandler owner; // null while detached
+        volatile long detachedNanos = System.nanoTime(); // meaningful while owner is null
+
+        Session(String token, ClientHandler owner) {
+            this.token = token;
+            this.owner = owner;
+        }
+
+        boolean expired(long now) {
+            return owner == null && now - detachedNanos > GRACE_NANOS;
+        }
+    }
+
+    private final ConcurrentMap<String, Session> sessions = new ConcurrentHashMap<>();
+
+    public SessionTable() {
+        Thread sweeper = new Thread(this::sweepLoop, "session-sweeper");
+        sweeper.setDaemon(true);
+        sweeper.start();
+    }
+
+    // Starts a session owned by owner (null: detached) and returns its token, replacing any
+    // session that is detached or expired. Returns null if the user is connected elsewhere.
+    public String open(String username, ClientHandler owner) {
+        String token = UUID.randomUUID().toString();
+        Session session = sessions.compute(username, (name, existing) -> {
+            if (existing != null && existing.owner != null) {
+                return existing;
+            }
+            return new Session(token, owner);
+        });
+        return session.token.equals(token) ? token : null;
+    }
+
+    public boolean isConnected(String username) {
+        Session session = sessions.get(username);
+        return session != null && session.owner != null;
+    }
+
+    // RECONNECT: if the token is current, the session moves to owner (a connection the server
+    // has not noticed is dead yet loses it)
+    public boolean resume(String username, String token, ClientHandler owner) {
+        Session session = sessions.computeIfPresent(username, (name, existing) -> {
+            if (existing.token.equals(token) && !existing.expired(System.nanoTime())) {
+                existing.owner = owner;
+            }
+            return existing;
+        });
+        return session != null && session.owner == owner && session.token.equals(token);
+    }
+
+    // The owning connection closed: the grace period starts now
+    public void detach(String username, ClientHandler owner) {
+        sessions.computeIfPresent(username, (name, existing) -> {
+            if (existing.owner == owner) {
+                existing.detachedNanos = System.nanoTime();
+                existing.owner = null;
+            }
+            return existing;
+        });
+    }
+
+    // Logout: the token stops working at once
+    public void end(String username, ClientHandler owner) {
+        sessions.computeIfPresent(username, (name, existing) -> existing.owner == owner ? null : existing);
+    }
+
+    private void sweepLoop() {
+        while (true) {
+            try {
+                Thread.sleep(SWEEP_INTERVAL_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            sweep();
+        }
+    }
+
+    // Returns the number of sessions evicted
+    int sweep() {
+        int evicted = 0;
+        for (Map.Entry<String, Session> entry : sessions.entrySet()) {
+            if (!entry.getValue().expired(System.nanoTime())) {
+                continue;
+            }
+            // re-checked under the key's lock: a reconnect may have just reattached it
+            boolean[] removed = new boolean[1];
+            sessions.computeIfPresent(entry.getKey(), (name, session) -> {
+                removed[0] = session.expired(System.nanoTime());
+                return removed[0] ? null : session;
+            });
+            if (removed[0]) {
+                evicted++;
+            }
+        }
+        return evicted;
+    }
+}
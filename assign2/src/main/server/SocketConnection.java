@@ -0,0 +1,146 @@
+package server;
+
+import common.BinaryWire;
+import common.WireFrameReader;
+
+import java.io.*;
+import javax.net.ssl.SSLSocket;
+
+// Blocking transport: one virtual thread per SSLSocket parked on the next inbound frame,
+// plus a writer virtual thread draining the client's bounded outbound queue
+public final class SocketConnection implements Connection {
+    private final SSLSocket socket;
+    private final ClientHandler handler;
+    private final OutboundQueue outbound = new OutboundQueue();
+    private WireFrameReader in;
+    private OutputStream out;
+    private volatile BinaryWire.Encoder binaryEncoder; // used by the writer thread only
+
+    public SocketConnection(SSLSocket socket, ChatServer server) {
+        this.socket = socket;
+        this.handler = new ClientHandler(this, server);
+        server.trackIdle(handler);
+    }
+
+    public void start() {
+        Thread.startVirtualThread(this::run);
+    }
+
+    private void run() {
+        try {
+            socket.startHandshake();
+
+            in = new WireFrameReader(socket.getInputStream());
+            out = new BufferedOutputStream(socket.getOutputStream());
+            Thread.startVirtualThread(this::writeLoop);
+
+            while (in.next()) {
+                if (in.isBinary()) {
+                    handler.handleBinaryFrame(in.buffer(), 0, in.length());
+                } else {
+                    handler.handleFrame(in.text());
+                }
+            }
+        } catch (IOException e) {
+            if (!socket.isClosed()) {
+                System.err.println("Connection error with client: " + e.getMessage());
+            }
+        } finally {
+            handler.onDisconnect();
+            outbound.close();
+            closeSocket();
+        }
+    }
+
+    // Drains the outbound queue, flushing once per burst instead of once per frame
+    private void writeLoop() {
+        try {
+            OutboundFrame frame;
+            while ((frame = outbound.take()) != null) {
+                do {
+                    write(frame);
+                } while ((frame = outbound.poll()) != null);
+                out.flush();
+            }
+        } catch (IOException e) {
+            if (!socket.isClosed()) {
+                System.err.println("Write error with client: " + e.getMessage());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            closeSocket();
+        }
+    }
+
+    private void write(OutboundFrame frame) throws IOException {
+        try {
+            frame.writeTo(out, binaryEncoder);
+        } catch (IllegalArgumentException e) {
+            // too long for the client to read: skipped, the connection stays usable
+            System.err.println("Dropped a frame for " + getRemoteAddress() + ": " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void send(OutboundFrame frame) {
+        if (!outbound.offer(frame)) {
+            // the writer is stuck: closing the socket here would wait behind it, on the producer's
+            // thread (a room broadcast holding its sequence lock), so the reset happens elsewhere
+            System.err.println("Outbound queue full for " + getRemoteAddress() + ", disconnecting slow client");
+            abort();
+        }
+    }
+
+    @Override
+    public boolean enableBinaryFraming() {
+        if (binaryEncoder == null) {
+            binaryEncoder = new BinaryWire.Encoder();
+        }
+        return true;
+    }
+
+    // Graceful: the writer sends whatever is still queued, then closes the socket
+    @Override
+    public void close() {
+        outbound.close();
+    }
+
+    // Closing the socket also fails the reader and a writer blocked on a dead peer. The close runs
+    // on its own virtual thread with SO_LINGER 0: an ordinary SSLSocket.close() waits for the TLS
+    // record lock to send close_notify, and a writer stuck on a peer that stopped reading holds it
+    @Override
+    public void abort() {
+        outbound.close();
+        Thread.startVirtualThread(this::resetSocket);
+    }
+
+    private void resetSocket() {
+        try {
+            socket.setSoLinger(true, 0);
+        } catch (IOException e) {
+            // already closed
+        }
+        closeSocket();
+    }
+
+    private void closeSocket() {
+        try {
+            if (!socket.isClosed()) {
+                socket.close();
+            }
+        } catch (IOException e) {
+            System.err.println("Error closing connection: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public OutboundQueue getOutboundQueue() {
+        return outbound;
+    }
+
+    @Override
+    public String getRemoteAddress() {
+        return socket.getInetAddress().getHostAddress();
+    }
+}
@@ -0,0 +1,240 @@
+package server;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+// In-memory index of users/users.txt keyed by the SHA-256 of the username.
+// The file is read once; logins and existence checks are served from memory,
+// registrations are group-committed by the RegistrationLog, and external edits to the file
+// are picked up by a cheap modification-time/size check on lookup.
+// Passwords are hashed and verified by the PasswordHasher pool; the file is append-only,
+// so a later line for the same user (e.g. an upgraded hash) wins on reload.
+public class UserStore {
+    private static final long RELOAD_CHECK_INTERVAL_MS = 1000;
+
+    private final Path path;
+    private final RegistrationLog registrationLog;
+    private final PasswordHasher hasher;
+    private volatile Map<String, String> users = new ConcurrentHashMap<>(); // hashed username -> hashed password
+    private final Set<String> reserved = ConcurrentHashMap.newKeySet(); // registrations waiting for fsync
+    private final Lock writeLock = new ReentrantLock();
+
+    // What the index was built from; guarded by writeLock
+    private long loadedModified = -1;
+    private long loadedSize = -1;
+    private volatile long lastCheck = 0;
+
+    public UserStore(String path) {
+        this(path, new PasswordHasher());
+    }
+
+    public UserStore(String path, PasswordHasher hasher) {
+        this.path = Paths.get(path);
+        this.hasher = hasher;
+        this.registrationLog = new RegistrationLog(this.path);
+        writeLock.lock();
+        try {
+            reload();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    // Parks the calling thread while the hashing pool verifies the password.
+    // Throws RejectedExecutionException when the pool's queue is full.
+    public boolean authenticate(String username, String password) {
+        String hashedUsername;
+        try {
+            refreshIfChanged();
+            hashedUsername = hashString(username);
+        } catch (NoSuchAlgorithmException e) {
+            e.printStackTrace();
+            return false;
+        }
+
+        String storedPassword = users.get(hashedUsername);
+        if (storedPassword == null) {
+            return false;
+        }
+
+        boolean valid;
+        try {
+            valid = hasher.verify(password, storedPassword).join();
+        } catch (CompletionException e) {
+            System.err.println("Error verifying password: " + e.getCause());
+            return false;
+        }
+        if (valid && hasher.needsRehash(storedPassword)) {
+            upgradeHash(hashedUsername, password, storedPassword);
+        }
+        return valid;
+    }
+
+    // Re-hashes legacy or outdated-cost entries in the background after a successful login
+    private void upgradeHash(String hashedUsername, String password, String oldHash) {
+        try {
+            hasher.hash(password)
+                    .thenCompose(newHash -> registrationLog.append(hashedUsername + ":" + newHash).thenApply(done -> newHash))
+                    .thenAccept(newHash -> {
+                        writeLock.lock();
+                        try {
+                            users.replace(hashedUsername, oldHash, newHash);
+                            rememberFileState();
+                        } finally {
+                            writeLock.unlock();
+                        }
+                    })
+                    .exceptionally(e -> {
+                        System.err.println("Could not upgrade password hash: " + e.getMessage());
+                        return null;
+                    });
+        } catch (RejectedExecutionException e) {
+            // Hashing pool is busy; the entry is upgraded on a later login
+        }
+    }
+
+    public boolean exists(String username) {
+        try {
+            refreshIfChanged();
+            String hashedUsername = hashString(username);
+            return users.containsKey(hashedUsername) || reserved.contains(hashedUsername);
+        } catch (NoSuchAlgorithmException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    // Returns false if the username is already taken. Blocks until the entry is durable on disk;
+    // throws IOException if its batch could not be written, and RejectedExecutionException
+    // when the hashing pool's queue is full.
+    public boolean register(String username, String password) throws IOException {
+        String hashedUsername;
+        try {
+            hashedUsername = hashString(username);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+
+        // Reserve the name so concurrent registrations see it as taken while the batch commits
+        writeLock.lock();
+        try {
+            reloadIfChanged();
+            if (users.containsKey(hashedUsername) || !reserved.add(hashedUsername)) {
+                return false;
+            }
+        } finally {
+            writeLock.unlock();
+        }
+
+        String hashedPassword;
+        try {
+            hashedPassword = hasher.hash(password).join();
+            registrationLog.append(hashedUsername + ":" + hashedPassword).join();
+        } catch (CompletionException e) {
+            reserved.remove(hashedUsername);
+            throw new IOException("Registration could not be stored", e.getCause());
+        } catch (RejectedExecutionException e) {
+            reserved.remove(hashedUsername);
+            throw e;
+        }
+
+        writeLock.lock();
+        try {
+            users.put(hashedUsername, hashedPassword);
+            reserved.remove(hashedUsername);
+            rememberFileState();
+            return true;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void refreshIfChanged() {
+        long now = System.currentTimeMillis();
+        if (now - lastCheck < RELOAD_CHECK_INTERVAL_MS) {
+            return;
+        }
+        lastCheck = now;
+        writeLock.lock();
+        try {
+            reloadIfChanged();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    // Caller holds writeLock
+    private void reloadIfChanged() {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            if (attributes.lastModifiedTime().toMillis() != loadedModified || attributes.size() != loadedSize) {
+                reload();
+            }
+        } catch (NoSuchFileException e) {
+            if (loadedSize != -1) {
+                reload();
+            }
+        } catch (IOException e) {
+            System.err.println("Error checking user file: " + e.getMessage());
+        }
+    }
+
+    // Caller holds writeLock
+    private void reload() {
+        Map<String, String> loaded = new ConcurrentHashMap<>();
+        try (BufferedReader fileReader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = fileReader.readLine()) != null) {
+                String[] parts = line.split(":");
+                if (parts.length != 2) continue;
+                loaded.put(parts[0], parts[1]);
+            }
+        } catch (NoSuchFileException e) {
+            // No users registered yet
+        } catch (IOException e) {
+            System.err.println("Error loading users: " + e.getMessage());
+            return;
+        }
+        users = loaded;
+        rememberFileState();
+    }
+
+    // Caller holds writeLock
+    private void rememberFileState() {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            loadedModified = attributes.lastModifiedTime().toMillis();
+            loadedSize = attributes.size();
+        } catch (IOException e) {
+            loadedModified = -1;
+            loadedSize = -1;
+        }
+    }
+
+    public int size() {
+        return users.size();
+    }
+
+    static String hashString(String input) throws NoSuchAlgorithmException {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        byte[] hash = digest.digest(input.getBytes(StandardCharsets.UTF_8));
+        StringBuilder hexString = new StringBuilder();
+        for (byte b : hash) {
+            String hex = Integer.toHexString(0xff & b);
+            if (hex.length() == 1) hexString.append('0');
+            hexString.append(hex);
+        }
+        return hexString.toString();
+    }
+}
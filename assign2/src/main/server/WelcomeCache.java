@@ -0,0 +1,116 @@
+package server;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+// Welcome message templates for AIRooms, so a join costs a string replace instead of an LLM call.
+// A template contains PLACEHOLDER where the username goes and is generated once per room (keyed
+// by name, model and prompt), then reused until it is TTL_MS old. Least recently used rooms are
+// evicted beyond CAPACITY entries.
+//
+// The cache holds futures: joins that arrive while a template is being generated wait for that
+// same generation instead of starting their own. Failed generations are not cached, and neither
+// are blank ones: those fail the future, so callers fall back instead of sending nothing.
+public class WelcomeCache {
+    public static final String PLACEHOLDER = "{user}";
+
+    // -Dchat.bot.welcomeCacheSize / -Dchat.bot.welcomeTtlMs
+    static final int CAPACITY = Integer.getInteger("chat.bot.welcomeCacheSize", 256);
+    static final long TTL_MS = Long.getLong("chat.bot.welcomeTtlMs", 30 * 60 * 1000);
+
+    private static final WelcomeCache SHARED = new WelcomeCache(CAPACITY, TTL_MS);
+
+    private record Entry(CompletableFuture<String> template, long createdNanos) {
+    }
+
+    private final long ttlNanos;
+    private final Lock lock = new ReentrantLock();
+    private final Map<String, Entry> entries;
+
+    public WelcomeCache(int capacity, long ttlMs) {
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMs);
+        int maxEntries = Math.max(1, capacity);
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    public static WelcomeCache shared() {
+        return SHARED;
+    }
+
+    public static String key(String roomName, String model, String prompt) {
+        return roomName + '\u0000' + model + '\u0000' + prompt;
+    }
+
+    // Returns the cached template for key, or starts generator to produce one
+    public CompletableFuture<String> get(String key, Supplier<CompletableFuture<String>> generator) {
+        CompletableFuture<String> template;
+        Entry entry;
+        lock.lock();
+        try {
+            Entry existing = entries.get(key);
+            if (existing != null && System.nanoTime() - existing.createdNanos() < ttlNanos) {
+                return existing.template();
+            }
+            template = new CompletableFuture<>();
+            entry = new Entry(template, System.nanoTime());
+            entries.put(key, entry);
+        } finally {
+            lock.unlock();
+        }
+
+        CompletableFuture<String> generated;
+        try {
+            generated = generator.get();
+        } catch (RuntimeException e) {
+            generated = CompletableFuture.failedFuture(e);
+        }
+        generated.whenComplete((text, e) -> {
+            if (e == null && (text == null || text.isBlank())) {
+                e = new IllegalStateException("blank welcome template");
+            }
+            if (e != null) {
+                forget(key, entry);
+                template.completeExceptionally(e);
+            } else {
+                template.complete(text);
+            }
+        });
+        return template;
+    }
+
+    public static String personalize(String template, String username) {
+        if (!template.contains(PLACEHOLDER)) {
+            // the model did not keep the marker; still address the user
+            return username + ", " + template;
+        }
+        return template.replace(PLACEHOLDER, username);
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void forget(String key, Entry entry) {
+        lock.lock();
+        try {
+            entries.remove(key, entry);
+        } finally {
+            lock.unlock();
+        }
+    }
+}